@@ -0,0 +1,137 @@
+package org.rabinfingerprint.fingerprint;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * JMH benchmarks of the fingerprint push loops and of the table precompute.
+ *
+ * Each invocation pushes inputBytes bytes, so MB/s is the reported ops/s
+ * times inputBytes / 2^20. Run with -prof gc to track the allocation rate.
+ *
+ * The benchmarks are generated by the JMH annotation processor in lib/jmh-1.37
+ * when src-benchmark is compiled, and run from the compiled classes:
+ *
+ * <pre>
+ *     java -cp 'bin:lib/guava-12/guava-12.0.jar:lib/jmh-1.37/*' org.openjdk.jmh.Main FingerprintBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FingerprintBenchmark {
+
+	@Param({ "31", "53" })
+	public int degree;
+
+	@Param({ "16", "48", "256" })
+	public int bytesPerWindow;
+
+	@Param({ "4096", "1048576" })
+	public int inputBytes;
+
+	private Polynomial polynomial;
+	private byte[] data;
+	private long[] fingerprints;
+
+	private RabinFingerprintLong rabin;
+	private RabinFingerprintLongSliced sliced;
+	private RabinFingerprintLongWindowed windowed;
+	private RabinFingerprintPolynomial rabinPolynomial;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		polynomial = Polynomial.createIrreducible(degree, random);
+		data = new byte[inputBytes];
+		random.nextBytes(data);
+		fingerprints = new long[inputBytes];
+
+		rabin = new RabinFingerprintLong(polynomial);
+		sliced = new RabinFingerprintLongSliced(polynomial);
+		windowed = new RabinFingerprintLongWindowed(polynomial, bytesPerWindow);
+		rabinPolynomial = new RabinFingerprintPolynomial(polynomial);
+	}
+
+	@Benchmark
+	public long pushBytes() {
+		rabin.reset();
+		rabin.pushBytes(data, 0, data.length);
+		return rabin.getFingerprintLong();
+	}
+
+	@Benchmark
+	public long pushBytesSliced() {
+		sliced.reset();
+		sliced.pushBytes(data, 0, data.length);
+		return sliced.getFingerprintLong();
+	}
+
+	/**
+	 * The per-byte loop a caller checking every window boundary would run.
+	 */
+	@Benchmark
+	public void pushByteWindowed(Blackhole blackhole) {
+		windowed.reset();
+		for (int i = 0; i < data.length; i++) {
+			windowed.pushByte(data[i]);
+			blackhole.consume(windowed.getFingerprintLong());
+		}
+	}
+
+	@Benchmark
+	public long[] pushBytesWindowedBulk() {
+		windowed.reset();
+		windowed.pushBytes(data, 0, data.length, fingerprints);
+		return fingerprints;
+	}
+
+	/**
+	 * The reference implementation is orders of magnitude slower than the
+	 * others, so this pushes at most 4096 bytes whatever inputBytes is.
+	 */
+	@Benchmark
+	public Polynomial pushBytesPolynomial() {
+		rabinPolynomial.reset();
+		rabinPolynomial.pushBytes(data, 0, Math.min(data.length, 4096));
+		return rabinPolynomial.getFingerprint();
+	}
+
+	/**
+	 * Builds the push and pop tables from scratch, bypassing the table cache.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public RabinFingerprintLongWindowed precomputeTables() {
+		TableCache.clear();
+		return new RabinFingerprintLongWindowed(polynomial, bytesPerWindow);
+	}
+
+	/**
+	 * Builds a fingerprint whose tables are already cached.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public RabinFingerprintLongWindowed precomputeTablesCached() {
+		return new RabinFingerprintLongWindowed(polynomial, bytesPerWindow);
+	}
+}
@@ -0,0 +1,108 @@
+package org.rabinfingerprint.handprint;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rabinfingerprint.datastructures.Interval;
+import org.rabinfingerprint.handprint.FingerFactory.ByteMaskBoundaryDetectoryStrategy;
+import org.rabinfingerprint.handprint.FingerFactory.GearChunkingEngine;
+import org.rabinfingerprint.handprint.Handprints.HandPrintFactory;
+import org.rabinfingerprint.polynomial.Polynomial;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * JMH benchmarks of chunking with {@link FingerFactory#getAllFingers}, with
+ * Rabin or Gear boundaries, and of comparing handprints.
+ *
+ * Each chunking invocation reads inputBytes bytes, so MB/s is the reported
+ * ops/s times inputBytes / 2^20. Run with -prof gc to track the allocation
+ * rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandprintBenchmark {
+
+	@Param({ "31", "53" })
+	public int degree;
+
+	@Param({ "8", "48" })
+	public int bytesPerWindow;
+
+	@Param({ "1048576", "16777216" })
+	public int inputBytes;
+
+	/** the boundary mask, so the average chunk is about mask + 1 bytes */
+	@Param({ "1023", "4095" })
+	public long chunkBoundaryMask;
+
+	@Param({ "rabin", "gear" })
+	public String chunker;
+
+	private byte[] data;
+	private FingerFactory factory;
+	private Handprint hand1;
+	private Handprint hand2;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		Polynomial p = Polynomial.createIrreducible(degree, random);
+		data = new byte[inputBytes];
+		random.nextBytes(data);
+		final long chunkPattern = 0xABC & chunkBoundaryMask;
+		final boolean gear = chunker.equals("gear");
+		if (gear) {
+			final int shift = Long.numberOfLeadingZeros(chunkBoundaryMask);
+			factory = new FingerFactory(p, new GearChunkingEngine(),
+					new ByteMaskBoundaryDetectoryStrategy(chunkBoundaryMask << shift, chunkPattern << shift));
+		} else {
+			factory = new FingerFactory(p, bytesPerWindow,
+					new ByteMaskBoundaryDetectoryStrategy(chunkBoundaryMask, chunkPattern));
+		}
+
+		// a similar copy with a few bytes changed
+		byte[] similar = data.clone();
+		for (int i = 0; i < 100; i++) {
+			similar[random.nextInt(similar.length)] = (byte) random.nextInt();
+		}
+		HandPrintFactory handFactory = Handprints.newFactory(p).bytesPerWindow(bytesPerWindow)
+				.chunkBoundaryMask(chunkBoundaryMask).chunkPattern(chunkPattern).gearChunking(gear);
+		hand1 = handFactory.newHandprint(new ByteArrayInputStream(data));
+		hand2 = handFactory.newHandprint(new ByteArrayInputStream(similar));
+		hand1.buildAll();
+		hand2.buildAll();
+	}
+
+	@Benchmark
+	public Multimap<Long, Interval> getAllFingers() throws IOException {
+		return factory.getAllFingers(new ByteArrayInputStream(data));
+	}
+
+	@Benchmark
+	public long getPalm() throws IOException {
+		return factory.getPalm(new ByteArrayInputStream(data));
+	}
+
+	@Benchmark
+	public double getSimilarity() {
+		return hand1.getSimilarity(hand2);
+	}
+}
@@ -0,0 +1,75 @@
+package org.rabinfingerprint.scanner;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rabinfingerprint.polynomial.Polynomial;
+import org.rabinfingerprint.scanner.StringFinder.StringMatcher;
+
+/**
+ * JMH benchmark of scanning a string for all matches with
+ * {@link StringMatcher#find()}.
+ *
+ * Each invocation scans inputBytes characters, so MB/s is the reported ops/s
+ * times inputBytes / 2^20.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringFinderBenchmark {
+
+	@Param({ "31", "53" })
+	public int degree;
+
+	/** the length of the target, which is the window size */
+	@Param({ "8", "64" })
+	public int bytesPerWindow;
+
+	@Param({ "65536", "1048576" })
+	public int inputBytes;
+
+	private StringFinder finder;
+	private String text;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		Polynomial p = Polynomial.createIrreducible(degree, random);
+		char[] chars = new char[inputBytes];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		String target = new String(chars, 0, bytesPerWindow);
+
+		// plant a copy of the target about every 4 KB
+		for (int i = 4096; i + bytesPerWindow <= chars.length; i += 4096) {
+			target.getChars(0, bytesPerWindow, chars, i);
+		}
+		text = new String(chars);
+		finder = new StringFinder(target, p);
+	}
+
+	@Benchmark
+	public int find() {
+		StringMatcher matcher = finder.matcher(text);
+		int count = 0;
+		while (matcher.find()) {
+			count++;
+		}
+		return count;
+	}
+}
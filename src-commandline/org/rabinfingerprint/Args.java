@@ -49,6 +49,7 @@ public class Args {
 		public Mode mode = Mode.HELP;
 		public int degree = 53;
 		public long polynomial = 0;
+		public Long seed = null;
 		public List<String> unflagged = Lists.newArrayList();
 	}
 	
@@ -72,6 +73,16 @@ public class Args {
 				}
 			}
 		});
+		args.add(new Arg(1, "-seed") {
+			@Override
+			public void parse(ArgsModel model, String[] strs) throws ArgParseException {
+				try {
+					model.seed = Long.parseLong(strs[0]);
+				} catch (NumberFormatException e) {
+					throw new ArgParseException("Could not parse seed.");
+				}
+			}
+		});
 		args.add(new Arg(1, "-p") {
 			@Override
 			public void parse(ArgsModel model, String[] strs) throws ArgParseException {
@@ -4,11 +4,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.rabinfingerprint.Args.ArgParseException;
 import org.rabinfingerprint.Args.ArgsModel;
-import org.rabinfingerprint.fingerprint.RabinFingerprintLong;
+import org.rabinfingerprint.fingerprint.Fingerprint.LongFingerprint;
+import org.rabinfingerprint.fingerprint.RabinFingerprintLongParallel;
+import org.rabinfingerprint.fingerprint.RabinFingerprintLongSliced;
 import org.rabinfingerprint.polynomial.Polynomial;
 
 import com.google.common.io.ByteStreams;
@@ -17,31 +22,48 @@ public class Main {
 
 	public void fingerprintFiles(List<String> paths, Polynomial p) throws FileNotFoundException,
 			IOException {
-		final RabinFingerprintLong rabin = new RabinFingerprintLong(p);
+		final RabinFingerprintLongParallel rabin = new RabinFingerprintLongParallel(new RabinFingerprintLongSliced(p));
+		final ForkJoinPool pool = new ForkJoinPool();
 		System.out.println(p.toHexString());
 		for (String path : paths) {
 			File file = new File(path);
 			if (file.exists()) {
-				rabin.reset();
-				rabin.pushBytes(ByteStreams.toByteArray(new FileInputStream(file)));
-				System.out.println(String.format("%X %s", rabin.getFingerprintLong(), file.getAbsolutePath()));
+				final long fingerprint = fingerprintFile(rabin, pool, file);
+				System.out.println(String.format("%X %s", fingerprint, file.getAbsolutePath()));
 				System.out.flush();
 			} else {
 				System.err.print(String.format("Could not find file %s", path));
 				System.err.flush();
 			}
 		}
+		pool.shutdown();
+	}
+
+	/**
+	 * Fingerprints the file's contents through read-only memory mappings of
+	 * segments that are fingerprinted in parallel, so the file is never copied
+	 * onto the heap.
+	 */
+	private static long fingerprintFile(RabinFingerprintLongParallel rabin, ForkJoinPool pool, File file)
+			throws IOException {
+		final FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			return rabin.fingerprint(channel, pool);
+		} finally {
+			channel.close();
+		}
 	}
 
 	public void fingerprintStdin(Polynomial p) throws IOException {
-		final RabinFingerprintLong rabin = new RabinFingerprintLong(p);
+		final LongFingerprint<Polynomial> rabin = new RabinFingerprintLongSliced(p);
 		System.out.println(p.toHexString());
 		rabin.pushBytes(ByteStreams.toByteArray(System.in));
 		System.out.println(String.format("%X", rabin.getFingerprintLong()));
 	}
 
-	public void generatePolynomial(int deg) {
-		Polynomial p = Polynomial.createIrreducible(deg);
+	public void generatePolynomial(int deg, Long seed) {
+		Random random = (seed == null) ? new Random() : new Random(seed);
+		Polynomial p = Polynomial.createIrreducible(deg, random);
 		System.out.println(p.toHexString());
 	}
 
@@ -77,7 +99,7 @@ public class Main {
 			printUsage();
 			break;
 		case POLYGEN:
-			generatePolynomial(model.degree);
+			generatePolynomial(model.degree, model.seed);
 			break;
 		}
 	}
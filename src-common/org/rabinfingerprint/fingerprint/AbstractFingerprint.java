@@ -1,5 +1,7 @@
 package org.rabinfingerprint.fingerprint;
 
+import java.nio.ByteBuffer;
+
 import org.rabinfingerprint.polynomial.Polynomial;
 
 public abstract class AbstractFingerprint implements Fingerprint<Polynomial> {
@@ -23,6 +25,24 @@ public abstract class AbstractFingerprint implements Fingerprint<Polynomial> {
 		}
 	}
 
+	/**
+	 * Pushes the remaining bytes of the buffer, leaving its position at its
+	 * limit. Heap buffers are handed to {@link #pushBytes(byte[], int, int)}
+	 * without copying.
+	 */
+	public void pushBytes(final ByteBuffer buffer) {
+		final int position = buffer.position();
+		final int limit = buffer.limit();
+		if (buffer.hasArray()) {
+			pushBytes(buffer.array(), buffer.arrayOffset() + position, limit - position);
+		} else {
+			for (int i = position; i < limit; i++) {
+				pushByte(buffer.get(i));
+			}
+		}
+		buffer.position(limit);
+	}
+
 	public abstract void pushByte(byte b);
 	public abstract void reset();
 	public abstract Polynomial getFingerprint();
@@ -1,5 +1,6 @@
 package org.rabinfingerprint.fingerprint;
 
+import java.nio.ByteBuffer;
 
 /**
  * Overview of Rabin's scheme given by Broder
@@ -10,6 +11,7 @@ package org.rabinfingerprint.fingerprint;
 public interface Fingerprint<T> {
 	public void pushBytes(byte[] bytes);
 	public void pushBytes(byte[] bytes, int offset, int length);
+	public void pushBytes(ByteBuffer buffer);
 	public void pushByte(byte b);
 	public void reset();
 
@@ -18,4 +20,21 @@ public interface Fingerprint<T> {
 	public static interface WindowedFingerprint<T> extends Fingerprint<T> {
 		public void popByte();
 	}
+
+	/**
+	 * A fingerprint that fits in a long and can be read without building a
+	 * T, e.g. a {@link org.rabinfingerprint.polynomial.Polynomial}.
+	 */
+	public static interface LongFingerprint<T> extends Fingerprint<T> {
+		public long getFingerprintLong();
+
+		/**
+		 * Pushes the bytes and stores the fingerprint after each one, i.e.
+		 * fingerprints[k] is the fingerprint after pushing bytes[offset + k].
+		 */
+		public void pushBytes(byte[] bytes, int offset, int length, long[] fingerprints);
+	}
+
+	public static interface LongWindowedFingerprint<T> extends LongFingerprint<T>, WindowedFingerprint<T> {
+	}
 }
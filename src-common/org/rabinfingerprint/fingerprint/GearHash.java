@@ -0,0 +1,108 @@
+package org.rabinfingerprint.fingerprint;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.rabinfingerprint.fingerprint.Fingerprint.LongFingerprint;
+
+/**
+ * The Gear rolling hash used for content-defined chunking in FastCDC. Each
+ * byte costs one shift, one add and one table lookup:
+ *
+ * <pre>
+ *     h' = (h << 1) + G[b]
+ * </pre>
+ *
+ * where G is a table of 256 random longs. Bytes shift out of the top of the
+ * hash on their own, so there is no window to maintain and nothing to pop, but
+ * bit k of the hash only depends on the last k + 1 bytes. Boundary masks should
+ * therefore test the high bits of the hash.
+ *
+ * This is not a Rabin fingerprint and has none of its guarantees; use it to
+ * find chunk boundaries, not to identify chunks.
+ */
+public class GearHash implements LongFingerprint<Long> {
+	/** the seed of the default table, fixed so chunk boundaries are stable */
+	public static final long DEFAULT_SEED = 0x5DEECE66DL;
+
+	protected final long[] gearTable;
+	protected long hash;
+
+	public GearHash() {
+		this(DEFAULT_SEED);
+	}
+
+	public GearHash(long seed) {
+		this.gearTable = new long[256];
+		Random random = new Random(seed);
+		for (int i = 0; i < 256; i++) {
+			gearTable[i] = random.nextLong();
+		}
+	}
+
+	public GearHash(GearHash that) {
+		this.gearTable = that.gearTable;
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes) {
+		pushBytes(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes, final int offset, final int length) {
+		final int max = offset + length;
+		long h = hash;
+		for (int i = offset; i < max; i++) {
+			h = (h << 1) + gearTable[bytes[i] & 0xFF];
+		}
+		hash = h;
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes, final int offset, final int length, final long[] fingerprints) {
+		final int max = offset + length;
+		long h = hash;
+		for (int i = offset; i < max; i++) {
+			h = (h << 1) + gearTable[bytes[i] & 0xFF];
+			fingerprints[i - offset] = h;
+		}
+		hash = h;
+	}
+
+	@Override
+	public void pushBytes(final ByteBuffer buffer) {
+		final int max = buffer.limit();
+		long h = hash;
+		for (int i = buffer.position(); i < max; i++) {
+			h = (h << 1) + gearTable[buffer.get(i) & 0xFF];
+		}
+		hash = h;
+		buffer.position(max);
+	}
+
+	@Override
+	public void pushByte(byte b) {
+		hash = (hash << 1) + gearTable[b & 0xFF];
+	}
+
+	@Override
+	public void reset() {
+		hash = 0L;
+	}
+
+	@Override
+	public Long getFingerprint() {
+		return hash;
+	}
+
+	@Override
+	public long getFingerprintLong() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toHexString(hash).toUpperCase();
+	}
+}
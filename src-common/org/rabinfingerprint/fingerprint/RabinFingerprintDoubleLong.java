@@ -0,0 +1,152 @@
+package org.rabinfingerprint.fingerprint;
+
+import org.rabinfingerprint.polynomial.BitPolynomial;
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * A {@link Fingerprint} builder for polynomials of degree 64 to 128 that keeps
+ * its state in two longs and uses the same kind of lookup table as
+ * {@link RabinFingerprintLong}.
+ *
+ * Unlike {@link RabinFingerprintLong}, the top byte of the fingerprint is
+ * looked up before it is shifted out, so no spare bits are needed and the
+ * degree can use the full width of the state.
+ *
+ * <pre>
+ *     f' = ((f * x^8 + b) mod x^d) + (t * x^d mod p(x))
+ *
+ *     where t is the byte of f that is shifted past x^d
+ * </pre>
+ *
+ * @see RabinFingerprintPolynomial for a rundown of the math
+ */
+public class RabinFingerprintDoubleLong extends AbstractFingerprint {
+	protected final long[] pushTableHigh;
+	protected final long[] pushTableLow;
+	protected final int degree;
+	protected final int shift;
+	protected final long highMask;
+
+	protected long high;
+	protected long low;
+
+	public RabinFingerprintDoubleLong(Polynomial poly) {
+		super(poly);
+		this.degree = poly.degree().intValue();
+		if (degree < 64 || degree > 128) {
+			throw new IllegalArgumentException("Polynomial must be of degree 64 to 128");
+		}
+		this.shift = degree - 8;
+		this.highMask = (degree == 128) ? -1L : (1L << (degree - 64)) - 1;
+		final BitPolynomial p = BitPolynomial.createFromPolynomial(poly);
+		final long[][] tables = TableCache.get("doublelong.push", p, 0, new TableCache.Loader<long[][]>() {
+			@Override
+			long[][] load() {
+				return precomputePushTable(p, degree);
+			}
+		});
+		this.pushTableHigh = tables[0];
+		this.pushTableLow = tables[1];
+	}
+
+	public RabinFingerprintDoubleLong(RabinFingerprintDoubleLong that) {
+		super(that.poly);
+		this.degree = that.degree;
+		this.shift = that.shift;
+		this.highMask = that.highMask;
+		this.pushTableHigh = that.pushTableHigh;
+		this.pushTableLow = that.pushTableLow;
+	}
+
+	/**
+	 * Precomputes (t * x^d mod p) for every byte t, which replaces the byte
+	 * shifted out of the top of the fingerprint, as a pair of high and low
+	 * tables.
+	 */
+	private static long[][] precomputePushTable(BitPolynomial p, int degree) {
+		final long[] pushTableHigh = new long[256];
+		final long[] pushTableLow = new long[256];
+		for (int i = 0; i < 256; i++) {
+			BitPolynomial f = BitPolynomial.createFromLong(i);
+			f = f.shiftLeft(degree);
+			f = f.mod(p);
+			pushTableHigh[i] = f.shiftRight(64).longValue();
+			pushTableLow[i] = f.longValue();
+		}
+		return new long[][] { pushTableHigh, pushTableLow };
+	}
+
+	/**
+	 * Returns the byte of the fingerprint at bits d-8 to d-1.
+	 */
+	protected final int topByte(long h, long l) {
+		if (shift >= 64) {
+			return (int) ((h >>> (shift - 64)) & 0xFF);
+		}
+		return (int) (((h << (64 - shift)) | (l >>> shift)) & 0xFF);
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes, final int offset, final int length) {
+		final int max = offset + length;
+		long h = high, l = low;
+		int i = offset;
+		while (i < max) {
+			int t = topByte(h, l);
+			h = (((h << 8) | (l >>> 56)) & highMask) ^ pushTableHigh[t];
+			l = ((l << 8) | (bytes[i++] & 0xFF)) ^ pushTableLow[t];
+		}
+		high = h;
+		low = l;
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes) {
+		pushBytes(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void pushByte(byte b) {
+		int t = topByte(high, low);
+		high = (((high << 8) | (low >>> 56)) & highMask) ^ pushTableHigh[t];
+		low = ((low << 8) | (b & 0xFF)) ^ pushTableLow[t];
+	}
+
+	@Override
+	public void reset() {
+		this.high = 0L;
+		this.low = 0L;
+	}
+
+	@Override
+	public Polynomial getFingerprint() {
+		byte[] bytes = new byte[16];
+		for (int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (high >>> (56 - 8 * i));
+			bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+		}
+		return Polynomial.createFromBytes(bytes);
+	}
+
+	@Override
+	public String toString() {
+		if (high == 0) {
+			return Long.toHexString(low).toUpperCase();
+		}
+		return (Long.toHexString(high) + String.format("%016x", low)).toUpperCase();
+	}
+
+	/**
+	 * Returns the terms of degree 64 and up of the fingerprint.
+	 */
+	public long getFingerprintHigh() {
+		return high;
+	}
+
+	/**
+	 * Returns the terms of degree 0 to 63 of the fingerprint.
+	 */
+	public long getFingerprintLow() {
+		return low;
+	}
+}
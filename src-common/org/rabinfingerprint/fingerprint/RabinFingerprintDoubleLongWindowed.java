@@ -0,0 +1,119 @@
+package org.rabinfingerprint.fingerprint;
+
+import org.rabinfingerprint.fingerprint.Fingerprint.WindowedFingerprint;
+import org.rabinfingerprint.polynomial.BitPolynomial;
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * A windowed {@link RabinFingerprintDoubleLong}, keeping the last window of
+ * bytes in a ring buffer like {@link RabinFingerprintLongWindowed}.
+ */
+public class RabinFingerprintDoubleLongWindowed extends RabinFingerprintDoubleLong implements
+		WindowedFingerprint<Polynomial> {
+
+	protected final long bytesPerWindow;
+	protected final long[] popTableHigh;
+	protected final long[] popTableLow;
+
+	/** the last bytesPerWindow bytes pushed */
+	protected final byte[] window;
+	/** the next slot to write, which holds the oldest byte once full */
+	protected int windowIndex;
+	/** the number of bytes currently in the window */
+	protected int windowCount;
+
+	public RabinFingerprintDoubleLongWindowed(Polynomial poly, long bytesPerWindow) {
+		super(poly);
+		if (bytesPerWindow < 1 || bytesPerWindow > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Window size must be between 1 and " + Integer.MAX_VALUE);
+		}
+		this.bytesPerWindow = bytesPerWindow;
+		this.window = new byte[(int) bytesPerWindow];
+		final long[][] tables = TableCache.get("doublelong.pop", BitPolynomial.createFromPolynomial(poly),
+				bytesPerWindow, new TableCache.Loader<long[][]>() {
+					@Override
+					long[][] load() {
+						return precomputePopTable();
+					}
+				});
+		this.popTableHigh = tables[0];
+		this.popTableLow = tables[1];
+	}
+
+	public RabinFingerprintDoubleLongWindowed(RabinFingerprintDoubleLongWindowed that) {
+		super(that);
+		this.bytesPerWindow = that.bytesPerWindow;
+		this.window = new byte[(int) bytesPerWindow];
+		this.popTableHigh = that.popTableHigh;
+		this.popTableLow = that.popTableLow;
+	}
+
+	/**
+	 * Precomputes (b * x^(8 * bytesPerWindow) mod p) for every byte b by
+	 * pushing a window's worth of zero bytes after it, as a pair of high and
+	 * low tables.
+	 */
+	private long[][] precomputePopTable() {
+		final long[] popTableHigh = new long[256];
+		final long[] popTableLow = new long[256];
+		for (int i = 0; i < 256; i++) {
+			reset();
+			super.pushByte((byte) i);
+			for (long k = 0; k < bytesPerWindow; k++) {
+				super.pushByte((byte) 0);
+			}
+			popTableHigh[i] = high;
+			popTableLow[i] = low;
+		}
+		reset();
+		return new long[][] { popTableHigh, popTableLow };
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes) {
+		pushBytes(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes, final int offset, final int length) {
+		final int max = offset + length;
+		int i = offset;
+		while (i < max) {
+			pushByte(bytes[i++]);
+		}
+	}
+
+	@Override
+	public void pushByte(byte b) {
+		super.pushByte(b);
+
+		final byte out = window[windowIndex];
+		window[windowIndex] = b;
+		if (++windowIndex == window.length) windowIndex = 0;
+		if (windowCount == window.length) {
+			high ^= popTableHigh[out & 0xFF];
+			low ^= popTableLow[out & 0xFF];
+		} else {
+			windowCount++;
+		}
+	}
+
+	/**
+	 * Removes the contribution of the oldest byte in the window from the
+	 * fingerprint. This happens automatically once the window is full.
+	 */
+	public void popByte() {
+		int oldest = windowIndex - windowCount;
+		if (oldest < 0) oldest += window.length;
+		high ^= popTableHigh[window[oldest] & 0xFF];
+		low ^= popTableLow[window[oldest] & 0xFF];
+		windowCount--;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		windowIndex = 0;
+		windowCount = 0;
+	}
+}
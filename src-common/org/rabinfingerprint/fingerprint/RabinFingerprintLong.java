@@ -1,6 +1,11 @@
 package org.rabinfingerprint.fingerprint;
 
+import java.nio.ByteBuffer;
+
+import org.rabinfingerprint.fingerprint.Fingerprint.LongFingerprint;
+import org.rabinfingerprint.polynomial.BitPolynomial;
 import org.rabinfingerprint.polynomial.Polynomial;
+import org.rabinfingerprint.polynomial.Polynomials;
 
 /**
  * A {@link Fingerprint} builder that uses longs and lookup tables to increase
@@ -19,8 +24,9 @@ import org.rabinfingerprint.polynomial.Polynomial;
  * 
  * @see RabinFingerprintPolynomial for a rundown of the math
  */
-public class RabinFingerprintLong extends AbstractFingerprint {
+public class RabinFingerprintLong extends AbstractFingerprint implements LongFingerprint<Polynomial> {
 	protected final long[] pushTable;
+	protected final long polynomial;
 	protected final int degree;
 	protected final int shift;
 	
@@ -28,15 +34,22 @@ public class RabinFingerprintLong extends AbstractFingerprint {
 
 	public RabinFingerprintLong(Polynomial poly) {
 		super(poly);
+		this.polynomial = poly.toBigInteger().longValue();
 		this.degree = poly.degree().intValue();
 		this.shift = degree - 8;
 		this.fingerprint = 0;
-		this.pushTable = new long[512];
-		precomputePushTable();
+		final BitPolynomial p = BitPolynomial.createFromPolynomial(poly);
+		this.pushTable = TableCache.get("long.push", p, 0, new TableCache.Loader<long[]>() {
+			@Override
+			long[] load() {
+				return precomputePushTable(p, degree);
+			}
+		});
 	}
 
 	public RabinFingerprintLong(RabinFingerprintLong that) {
 		super(that.poly);
+		this.polynomial = that.polynomial;
 		this.degree = that.degree;
 		this.shift = that.shift;
 		this.pushTable = that.pushTable;
@@ -45,7 +58,7 @@ public class RabinFingerprintLong extends AbstractFingerprint {
 
 	/**
 	 * Precomputes the results of pushing and popping bytes. These use the more
-	 * accurate Polynomial methods (they won't overflow like longs, and they
+	 * accurate BitPolynomial methods (they won't overflow like longs, and they
 	 * compute in GF(2^k)).
 	 * 
 	 * These algorithms should be synonymous with
@@ -54,13 +67,15 @@ public class RabinFingerprintLong extends AbstractFingerprint {
 	 * be xor'red with the fingerprint in the inner loop of our own
 	 * {@link #pushByte} and {@link #popByte}
 	 */
-	private void precomputePushTable() {
+	private static long[] precomputePushTable(BitPolynomial p, int degree) {
+		final long[] pushTable = new long[512];
 		for (int i = 0; i < 512; i++) {
-			Polynomial f = Polynomial.createFromLong(i);
-			f = f.shiftLeft(poly.degree());
-			f = f.xor(f.mod(poly));
-			pushTable[i] = f.toBigInteger().longValue();
+			BitPolynomial f = BitPolynomial.createFromLong(i);
+			f = f.shiftLeft(degree);
+			f = f.xor(f.mod(p));
+			pushTable[i] = f.longValue();
 		}
+		return pushTable;
 	}
 
 	@Override
@@ -81,6 +96,38 @@ public class RabinFingerprintLong extends AbstractFingerprint {
 		}
 	}
 
+	public void pushBytes(final byte[] bytes, final int offset, final int length, final long[] fingerprints) {
+		final int max = offset + length;
+		long f = fingerprint;
+		int i = offset;
+		while (i < max) {
+			int j = (int) ((f >> shift) & 0x1FF);
+			f = ((f << 8) | (bytes[i] & 0xFF)) ^ pushTable[j];
+			fingerprints[i++ - offset] = f;
+		}
+		fingerprint = f;
+	}
+
+	/**
+	 * Heap buffers go through {@link #pushBytes(byte[], int, int)}, while
+	 * direct and read-only buffers (e.g. memory-mapped files) are read in
+	 * place with absolute gets.
+	 */
+	@Override
+	public void pushBytes(final ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			super.pushBytes(buffer);
+			return;
+		}
+		final int max = buffer.limit();
+		int i = buffer.position();
+		while (i < max) {
+			int j = (int) ((fingerprint >> shift) & 0x1FF);
+			fingerprint = ((fingerprint << 8) | (buffer.get(i++) & 0xFF)) ^ pushTable[j];
+		}
+		buffer.position(max);
+	}
+
 	@Override
 	public void pushByte(byte b) {
 		int j = (int) ((fingerprint >> shift) & 0x1FF);
@@ -100,4 +147,29 @@ public class RabinFingerprintLong extends AbstractFingerprint {
 	public long getFingerprintLong() {
 		return fingerprint;
 	}
+
+	@Override
+	public String toString() {
+		return Long.toHexString(getFingerprintLong()).toUpperCase();
+	}
+
+	/**
+	 * Computes the fingerprint of the concatenation A || B from the
+	 * fingerprints of A and B and the length of B in bytes.
+	 * 
+	 * <pre>
+	 *     Since the fingerprint is linear over GF(2),
+	 * 
+	 *         f(A || B) = (A(x) * x^(8|B|) + B(x)) mod p(x)
+	 *                   = (f(A) * (x^(8|B|) mod p(x))) mod p(x) + f(B)
+	 * </pre>
+	 * 
+	 * This lets segments of a message be fingerprinted independently (and in
+	 * parallel) and stitched together afterwards. The cost is logarithmic in
+	 * the length of B.
+	 */
+	public long combine(long prefix, long suffix, long suffixLength) {
+		final long shifted = Polynomials.modPow(2L, 8 * suffixLength, polynomial);
+		return Polynomials.multiplyMod(prefix, shifted, polynomial) ^ suffix;
+	}
 }
@@ -0,0 +1,132 @@
+package org.rabinfingerprint.fingerprint;
+
+import org.rabinfingerprint.polynomial.BitPolynomial;
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * A {@link Fingerprint} builder for polynomials of any degree of 8 or more
+ * (in practice up to 256 or so) that keeps its state in an array of longs and
+ * uses a lookup table like {@link RabinFingerprintLong}.
+ *
+ * Word 0 of the state holds the terms of degree 0 to 63, word 1 the terms of
+ * degree 64 to 127, and so on. As in {@link RabinFingerprintDoubleLong} the top
+ * byte is looked up before it is shifted out, so the degree can use the full
+ * width of the state. For degrees 64 to 128 prefer
+ * {@link RabinFingerprintDoubleLong}, which avoids the array indirection.
+ *
+ * @see RabinFingerprintPolynomial for a rundown of the math
+ */
+public class RabinFingerprintLongArray extends AbstractFingerprint {
+	protected final long[] pushTable;
+	protected final int degree;
+	protected final int words;
+	protected final int topWord;
+	protected final int topShift;
+	protected final long topMask;
+
+	protected final long[] fingerprint;
+
+	public RabinFingerprintLongArray(Polynomial poly) {
+		super(poly);
+		this.degree = poly.degree().intValue();
+		if (degree < 8) {
+			throw new IllegalArgumentException("Polynomial must be of degree 8 or more");
+		}
+		this.words = (degree + 63) / 64;
+		this.topWord = (degree - 8) / 64;
+		this.topShift = (degree - 8) % 64;
+		this.topMask = (degree % 64 == 0) ? -1L : (1L << (degree % 64)) - 1;
+		this.fingerprint = new long[words];
+		final BitPolynomial p = BitPolynomial.createFromPolynomial(poly);
+		this.pushTable = TableCache.get("longarray.push", p, 0, new TableCache.Loader<long[]>() {
+			@Override
+			long[] load() {
+				return precomputePushTable(p);
+			}
+		});
+	}
+
+	public RabinFingerprintLongArray(RabinFingerprintLongArray that) {
+		super(that.poly);
+		this.degree = that.degree;
+		this.words = that.words;
+		this.topWord = that.topWord;
+		this.topShift = that.topShift;
+		this.topMask = that.topMask;
+		this.fingerprint = new long[words];
+		this.pushTable = that.pushTable;
+	}
+
+	/**
+	 * Precomputes (t * x^d mod p) for every byte t, which replaces the byte
+	 * shifted out of the top of the fingerprint. Row t of the table starts at
+	 * index t * words.
+	 */
+	private long[] precomputePushTable(BitPolynomial p) {
+		final long[] pushTable = new long[256 * words];
+		for (int i = 0; i < 256; i++) {
+			BitPolynomial f = BitPolynomial.createFromLong(i);
+			f = f.shiftLeft(degree);
+			f = f.mod(p);
+			long[] row = f.toLongArray();
+			System.arraycopy(row, 0, pushTable, i * words, row.length);
+		}
+		return pushTable;
+	}
+
+	/**
+	 * Returns the byte of the fingerprint at bits d-8 to d-1.
+	 */
+	protected final int topByte() {
+		long t = fingerprint[topWord] >>> topShift;
+		if (topShift > 56) {
+			t |= fingerprint[topWord + 1] << (64 - topShift);
+		}
+		return (int) (t & 0xFF);
+	}
+
+	@Override
+	public void pushByte(byte b) {
+		final long[] f = fingerprint;
+		final int row = topByte() * words;
+		for (int k = words - 1; k > 0; k--) {
+			f[k] = ((f[k] << 8) | (f[k - 1] >>> 56)) ^ pushTable[row + k];
+		}
+		f[0] = ((f[0] << 8) | (b & 0xFF)) ^ pushTable[row];
+		f[words - 1] &= topMask;
+	}
+
+	@Override
+	public void reset() {
+		for (int k = 0; k < words; k++) {
+			fingerprint[k] = 0L;
+		}
+	}
+
+	@Override
+	public Polynomial getFingerprint() {
+		byte[] bytes = new byte[8 * words];
+		for (int k = 0; k < words; k++) {
+			for (int i = 0; i < 8; i++) {
+				bytes[bytes.length - 8 * k - 1 - i] = (byte) (fingerprint[k] >>> (8 * i));
+			}
+		}
+		return Polynomial.createFromBytes(bytes);
+	}
+
+	/**
+	 * Copies the words of the fingerprint into the array, least significant
+	 * word first, and returns it.
+	 */
+	public long[] getFingerprintLongs(long[] words) {
+		System.arraycopy(fingerprint, 0, words, 0, this.words);
+		return words;
+	}
+
+	/**
+	 * Returns the number of longs needed to hold the fingerprint.
+	 */
+	public int getWordCount() {
+		return words;
+	}
+}
@@ -0,0 +1,103 @@
+package org.rabinfingerprint.fingerprint;
+
+import org.rabinfingerprint.fingerprint.Fingerprint.WindowedFingerprint;
+import org.rabinfingerprint.polynomial.BitPolynomial;
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * A windowed {@link RabinFingerprintLongArray}, keeping the last window of
+ * bytes in a ring buffer like {@link RabinFingerprintLongWindowed}.
+ */
+public class RabinFingerprintLongArrayWindowed extends RabinFingerprintLongArray implements
+		WindowedFingerprint<Polynomial> {
+
+	protected final long bytesPerWindow;
+	protected final long[] popTable;
+
+	/** the last bytesPerWindow bytes pushed */
+	protected final byte[] window;
+	/** the next slot to write, which holds the oldest byte once full */
+	protected int windowIndex;
+	/** the number of bytes currently in the window */
+	protected int windowCount;
+
+	public RabinFingerprintLongArrayWindowed(Polynomial poly, long bytesPerWindow) {
+		super(poly);
+		if (bytesPerWindow < 1 || bytesPerWindow > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Window size must be between 1 and " + Integer.MAX_VALUE);
+		}
+		this.bytesPerWindow = bytesPerWindow;
+		this.window = new byte[(int) bytesPerWindow];
+		this.popTable = TableCache.get("longarray.pop", BitPolynomial.createFromPolynomial(poly), bytesPerWindow,
+				new TableCache.Loader<long[]>() {
+					@Override
+					long[] load() {
+						return precomputePopTable();
+					}
+				});
+	}
+
+	public RabinFingerprintLongArrayWindowed(RabinFingerprintLongArrayWindowed that) {
+		super(that);
+		this.bytesPerWindow = that.bytesPerWindow;
+		this.window = new byte[(int) bytesPerWindow];
+		this.popTable = that.popTable;
+	}
+
+	/**
+	 * Precomputes (b * x^(8 * bytesPerWindow) mod p) for every byte b by
+	 * pushing a window's worth of zero bytes after it.
+	 */
+	private long[] precomputePopTable() {
+		final long[] popTable = new long[256 * words];
+		for (int i = 0; i < 256; i++) {
+			reset();
+			super.pushByte((byte) i);
+			for (long k = 0; k < bytesPerWindow; k++) {
+				super.pushByte((byte) 0);
+			}
+			System.arraycopy(fingerprint, 0, popTable, i * words, words);
+		}
+		reset();
+		return popTable;
+	}
+
+	@Override
+	public void pushByte(byte b) {
+		super.pushByte(b);
+
+		final byte out = window[windowIndex];
+		window[windowIndex] = b;
+		if (++windowIndex == window.length) windowIndex = 0;
+		if (windowCount == window.length) {
+			pop(out);
+		} else {
+			windowCount++;
+		}
+	}
+
+	/**
+	 * Removes the contribution of the oldest byte in the window from the
+	 * fingerprint. This happens automatically once the window is full.
+	 */
+	public void popByte() {
+		int oldest = windowIndex - windowCount;
+		if (oldest < 0) oldest += window.length;
+		pop(window[oldest]);
+		windowCount--;
+	}
+
+	private void pop(byte b) {
+		final int row = (b & 0xFF) * words;
+		for (int k = 0; k < words; k++) {
+			fingerprint[k] ^= popTable[row + k];
+		}
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		windowIndex = 0;
+		windowCount = 0;
+	}
+}
@@ -0,0 +1,231 @@
+package org.rabinfingerprint.fingerprint;
+
+import java.nio.ByteBuffer;
+
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * Rolling fingerprints over several window sizes at once, e.g. 16, 48 and 64
+ * bytes, each identical to the fingerprint of a
+ * {@link RabinFingerprintLongWindowed} of that size.
+ *
+ * All windows share one history ring (sized for the largest window), one push
+ * table and one pass over the input; only the pop tables are per window, and
+ * those are shared with any other fingerprint of the same polynomial and
+ * window size. Every window still keeps its own fingerprint, so each byte
+ * costs one push and one pop lookup per window, but the input is read once and
+ * no per-window queue is maintained.
+ *
+ * {@link #getFingerprint()} and {@link #getFingerprintLong()} report the
+ * first window; use the indexed variants for the others.
+ */
+public class RabinFingerprintLongMultiWindowed extends RabinFingerprintLong {
+
+	protected final int[] bytesPerWindow;
+	protected final long[][] popTables;
+	protected final long[] fingerprints;
+
+	/** the last bytes pushed, as many as the largest window */
+	protected final byte[] history;
+	/** the next slot to write, which holds the oldest byte once full */
+	protected int historyIndex;
+	/** the number of bytes currently in the history */
+	protected int historyCount;
+
+	public RabinFingerprintLongMultiWindowed(Polynomial poly, long... bytesPerWindow) {
+		super(poly);
+		if (bytesPerWindow.length == 0) {
+			throw new IllegalArgumentException("At least one window size is required");
+		}
+		this.bytesPerWindow = new int[bytesPerWindow.length];
+		this.popTables = new long[bytesPerWindow.length][];
+		this.fingerprints = new long[bytesPerWindow.length];
+		int max = 0;
+		for (int k = 0; k < bytesPerWindow.length; k++) {
+			if (bytesPerWindow[k] < 1 || bytesPerWindow[k] > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Window size must be between 1 and " + Integer.MAX_VALUE);
+			}
+			this.bytesPerWindow[k] = (int) bytesPerWindow[k];
+			this.popTables[k] = RabinFingerprintLongWindowed.getPopTable(poly, bytesPerWindow[k]);
+			max = Math.max(max, this.bytesPerWindow[k]);
+		}
+		this.history = new byte[max];
+	}
+
+	public RabinFingerprintLongMultiWindowed(RabinFingerprintLongMultiWindowed that) {
+		super(that);
+		this.bytesPerWindow = that.bytesPerWindow;
+		this.popTables = that.popTables;
+		this.fingerprints = new long[bytesPerWindow.length];
+		this.history = new byte[that.history.length];
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes) {
+		pushBytes(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes, final int offset, final int length) {
+		final int size = history.length;
+		final int max = offset + length;
+		final int head = (int) Math.min(max, (long) offset + size);
+		int i = offset;
+
+		// the outgoing bytes of the first window come from the ring
+		while (i < head) {
+			pushByte(bytes[i++]);
+		}
+		if (i == max) return;
+
+		// every window is full and its outgoing bytes are in the input
+		final int n = fingerprints.length;
+		while (i < max) {
+			final long in = bytes[i] & 0xFF;
+			for (int k = 0; k < n; k++) {
+				long f = fingerprints[k];
+				int j = (int) ((f >> shift) & 0x1FF);
+				fingerprints[k] = ((f << 8) | in) ^ pushTable[j] ^ popTables[k][bytes[i - bytesPerWindow[k]] & 0xFF];
+			}
+			i++;
+		}
+
+		// carry the last window over to the next call
+		System.arraycopy(bytes, max - size, history, 0, size);
+		historyIndex = 0;
+	}
+
+	/**
+	 * Stores the fingerprint of the first window after every byte. Use
+	 * {@link #pushAllWindows} to get all of them.
+	 */
+	@Override
+	public void pushBytes(final byte[] bytes, final int offset, final int length, final long[] fingerprints) {
+		final int max = offset + length;
+		int i = offset;
+		while (i < max) {
+			pushByte(bytes[i]);
+			fingerprints[i++ - offset] = this.fingerprints[0];
+		}
+	}
+
+	/**
+	 * Pushes the bytes like {@link #pushBytes(byte[], int, int)} and stores the
+	 * fingerprints of all windows ending at every byte, i.e.
+	 * fingerprints[k * w + i] is the fingerprint of window i after pushing
+	 * bytes[offset + k], where w is {@link #getWindowCount()}.
+	 */
+	public void pushAllWindows(final byte[] bytes, final int offset, final int length, final long[] fingerprints) {
+		final int size = history.length;
+		final int n = this.fingerprints.length;
+		final int max = offset + length;
+		final int head = (int) Math.min(max, (long) offset + size);
+		int i = offset;
+		int o = 0;
+
+		// the outgoing bytes of the first window come from the ring
+		while (i < head) {
+			pushByte(bytes[i++]);
+			System.arraycopy(this.fingerprints, 0, fingerprints, o, n);
+			o += n;
+		}
+		if (i == max) return;
+
+		// every window is full and its outgoing bytes are in the input
+		while (i < max) {
+			final long in = bytes[i] & 0xFF;
+			for (int k = 0; k < n; k++) {
+				long f = this.fingerprints[k];
+				int j = (int) ((f >> shift) & 0x1FF);
+				f = ((f << 8) | in) ^ pushTable[j] ^ popTables[k][bytes[i - bytesPerWindow[k]] & 0xFF];
+				this.fingerprints[k] = f;
+				fingerprints[o++] = f;
+			}
+			i++;
+		}
+
+		// carry the last window over to the next call
+		System.arraycopy(bytes, max - size, history, 0, size);
+		historyIndex = 0;
+	}
+
+	@Override
+	public void pushBytes(final ByteBuffer buffer) {
+		final int position = buffer.position();
+		final int limit = buffer.limit();
+		if (buffer.hasArray()) {
+			pushBytes(buffer.array(), buffer.arrayOffset() + position, limit - position);
+		} else {
+			for (int i = position; i < limit; i++) {
+				pushByte(buffer.get(i));
+			}
+		}
+		buffer.position(limit);
+	}
+
+	@Override
+	public void pushByte(byte b) {
+		final int size = history.length;
+		final long in = b & 0xFF;
+		for (int k = 0; k < fingerprints.length; k++) {
+			long f = fingerprints[k];
+			int j = (int) ((f >> shift) & 0x1FF);
+			f = ((f << 8) | in) ^ pushTable[j];
+			final int w = bytesPerWindow[k];
+			if (historyCount >= w) {
+				int out = historyIndex - w;
+				if (out < 0) out += size;
+				f ^= popTables[k][history[out] & 0xFF];
+			}
+			fingerprints[k] = f;
+		}
+
+		history[historyIndex] = b;
+		if (++historyIndex == size) historyIndex = 0;
+		if (historyCount < size) historyCount++;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		for (int k = 0; k < fingerprints.length; k++) {
+			fingerprints[k] = 0L;
+		}
+		historyIndex = 0;
+		historyCount = 0;
+	}
+
+	@Override
+	public Polynomial getFingerprint() {
+		return getFingerprint(0);
+	}
+
+	public Polynomial getFingerprint(int window) {
+		return Polynomial.createFromLong(fingerprints[window]);
+	}
+
+	@Override
+	public long getFingerprintLong() {
+		return fingerprints[0];
+	}
+
+	public long getFingerprintLong(int window) {
+		return fingerprints[window];
+	}
+
+	/**
+	 * Copies the fingerprints of all windows into the array, in the order the
+	 * window sizes were given, and returns it.
+	 */
+	public long[] getFingerprintLongs(long[] fingerprints) {
+		System.arraycopy(this.fingerprints, 0, fingerprints, 0, this.fingerprints.length);
+		return fingerprints;
+	}
+
+	/**
+	 * Returns the number of window sizes tracked.
+	 */
+	public int getWindowCount() {
+		return fingerprints.length;
+	}
+}
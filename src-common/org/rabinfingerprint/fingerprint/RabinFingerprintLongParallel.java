@@ -0,0 +1,82 @@
+package org.rabinfingerprint.fingerprint;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fingerprints a file on a {@link ForkJoinPool}.
+ *
+ * The file is split in half recursively until the segments are small enough,
+ * each segment is memory-mapped and fingerprinted on its own, and the results
+ * are stitched back together with {@link RabinFingerprintLong#combine}. The
+ * result is identical to pushing the whole file through a single
+ * {@link RabinFingerprintLong}.
+ */
+public class RabinFingerprintLongParallel {
+	/** segments at or below this size are fingerprinted sequentially */
+	public static final long DEFAULT_SEGMENT_BYTES = 16 * (1 << 20); // 16 MB
+
+	private final RabinFingerprintLongSliced prototype;
+	private final long segmentBytes;
+
+	public RabinFingerprintLongParallel(RabinFingerprintLongSliced prototype) {
+		this(prototype, DEFAULT_SEGMENT_BYTES);
+	}
+
+	public RabinFingerprintLongParallel(RabinFingerprintLongSliced prototype, long segmentBytes) {
+		if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Segment size must be positive and fit in a single mapping");
+		}
+		this.prototype = prototype;
+		this.segmentBytes = segmentBytes;
+	}
+
+	/**
+	 * Returns the fingerprint of the channel's entire contents.
+	 */
+	public long fingerprint(FileChannel channel, ForkJoinPool pool) throws IOException {
+		try {
+			return pool.invoke(new SegmentTask(channel, 0, channel.size()));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private final class SegmentTask extends RecursiveTask<Long> {
+		private final FileChannel channel;
+		private final long position;
+		private final long length;
+
+		private SegmentTask(FileChannel channel, long position, long length) {
+			this.channel = channel;
+			this.position = position;
+			this.length = length;
+		}
+
+		@Override
+		protected Long compute() {
+			if (length <= segmentBytes) {
+				final RabinFingerprintLong finger = new RabinFingerprintLongSliced(prototype);
+				try {
+					finger.pushBytes(channel.map(MapMode.READ_ONLY, position, length));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return finger.getFingerprintLong();
+			}
+
+			// split on a segment boundary so that the leaves map evenly
+			final long half = ((length / segmentBytes + 1) / 2) * segmentBytes;
+			final SegmentTask head = new SegmentTask(channel, position, half);
+			final SegmentTask tail = new SegmentTask(channel, position + half, length - half);
+			head.fork();
+			final long tailFingerprint = tail.compute();
+			return prototype.combine(head.join(), tailFingerprint, length - half);
+		}
+	}
+}
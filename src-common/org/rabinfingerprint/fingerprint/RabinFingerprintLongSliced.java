@@ -0,0 +1,195 @@
+package org.rabinfingerprint.fingerprint;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.rabinfingerprint.polynomial.BitPolynomial;
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * A {@link RabinFingerprintLong} that consumes 8 (or 4) bytes per step in its
+ * bulk {@link #pushBytes} methods, in the style of the "slicing-by-N" CRC
+ * algorithms. Single byte pushes behave exactly like the parent class, and the
+ * resulting fingerprints are bit-for-bit identical.
+ *
+ * <pre>
+ *     Pushing s bits B into a fingerprint f of degree d computes
+ *
+ *         f' = (f * x^s + B) mod p(x)
+ *
+ *     Split V = f * x^s + B at bit d into a low part L (degree < d) and a high
+ *     part H (degree < s), so that V = H * x^d + L and
+ *
+ *         f' = L + (H * x^d mod p(x))
+ *            = L + sum_k (h_k * x^(8k + d) mod p(x))
+ *
+ *     where h_k is the k-th byte of H. Each term is a lookup into a 256 entry
+ *     table for lane k, and all lookups of one step are independent of each
+ *     other.
+ * </pre>
+ *
+ * Input bytes are read as big-endian words since the first byte pushed is the
+ * most significant.
+ *
+ * @see RabinFingerprintLong for the degree restrictions
+ */
+public class RabinFingerprintLongSliced extends RabinFingerprintLong {
+	protected final long[][] laneTables;
+	protected final long mask;
+
+	public RabinFingerprintLongSliced(Polynomial poly) {
+		super(poly);
+		if (degree < 8) {
+			throw new IllegalArgumentException("Polynomial must be of degree 8 or more");
+		}
+		this.mask = (1L << degree) - 1;
+		this.laneTables = TableCache.get("long.lanes", BitPolynomial.createFromPolynomial(poly), 0,
+				new TableCache.Loader<long[][]>() {
+					@Override
+					long[][] load() {
+						return precomputeLaneTables();
+					}
+				});
+	}
+
+	public RabinFingerprintLongSliced(RabinFingerprintLongSliced that) {
+		super(that);
+		this.mask = that.mask;
+		this.laneTables = that.laneTables;
+	}
+
+	/**
+	 * Precomputes (v * x^(8k + d) mod p) for every byte v and lane k. Lane 0
+	 * falls out of the push table, and every following lane is the previous
+	 * one with a zero byte pushed in.
+	 */
+	private long[][] precomputeLaneTables() {
+		final long[][] laneTables = new long[8][256];
+		for (int v = 0; v < 256; v++) {
+			long f = pushTable[v] ^ ((long) v << degree);
+			laneTables[0][v] = f;
+			for (int k = 1; k < 8; k++) {
+				int j = (int) ((f >> shift) & 0x1FF);
+				f = (f << 8) ^ pushTable[j];
+				laneTables[k][v] = f;
+			}
+		}
+		return laneTables;
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes) {
+		pushBytes(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void pushBytes(final byte[] bytes, final int offset, final int length) {
+		final long[] t0 = laneTables[0], t1 = laneTables[1], t2 = laneTables[2], t3 = laneTables[3];
+		final long[] t4 = laneTables[4], t5 = laneTables[5], t6 = laneTables[6], t7 = laneTables[7];
+		final int max = offset + length;
+		long f = fingerprint;
+		int i = offset;
+
+		// eight bytes per step
+		while (i + 8 <= max) {
+			final long b = readLong(bytes, i);
+			final long h = (f << (64 - degree)) | (b >>> degree);
+			f = (b & mask)
+					^ t0[(int) (h & 0xFF)]
+					^ t1[(int) ((h >>> 8) & 0xFF)]
+					^ t2[(int) ((h >>> 16) & 0xFF)]
+					^ t3[(int) ((h >>> 24) & 0xFF)]
+					^ t4[(int) ((h >>> 32) & 0xFF)]
+					^ t5[(int) ((h >>> 40) & 0xFF)]
+					^ t6[(int) ((h >>> 48) & 0xFF)]
+					^ t7[(int) (h >>> 56)];
+			i += 8;
+		}
+
+		// four bytes in one step, if there is room
+		if (i + 4 <= max) {
+			final long b = readInt(bytes, i);
+			final long h, l;
+			if (degree >= 32) {
+				h = f >>> (degree - 32);
+				l = ((f << 32) | b) & mask;
+			} else {
+				h = (f << (32 - degree)) | (b >>> degree);
+				l = b & mask;
+			}
+			f = l
+					^ t0[(int) (h & 0xFF)]
+					^ t1[(int) ((h >>> 8) & 0xFF)]
+					^ t2[(int) ((h >>> 16) & 0xFF)]
+					^ t3[(int) ((h >>> 24) & 0xFF)];
+			i += 4;
+		}
+
+		// remaining bytes one at a time
+		while (i < max) {
+			int j = (int) ((f >> shift) & 0x1FF);
+			f = ((f << 8) | (bytes[i++] & 0xFF)) ^ pushTable[j];
+		}
+		fingerprint = f;
+	}
+
+	/**
+	 * Direct and read-only buffers are read in place a long at a time,
+	 * whatever the byte order of the buffer.
+	 */
+	@Override
+	public void pushBytes(final ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			super.pushBytes(buffer);
+			return;
+		}
+		final long[] t0 = laneTables[0], t1 = laneTables[1], t2 = laneTables[2], t3 = laneTables[3];
+		final long[] t4 = laneTables[4], t5 = laneTables[5], t6 = laneTables[6], t7 = laneTables[7];
+		final boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+		final int max = buffer.limit();
+		long f = fingerprint;
+		int i = buffer.position();
+
+		// eight bytes per step
+		while (i + 8 <= max) {
+			final long b = bigEndian ? buffer.getLong(i) : Long.reverseBytes(buffer.getLong(i));
+			final long h = (f << (64 - degree)) | (b >>> degree);
+			f = (b & mask)
+					^ t0[(int) (h & 0xFF)]
+					^ t1[(int) ((h >>> 8) & 0xFF)]
+					^ t2[(int) ((h >>> 16) & 0xFF)]
+					^ t3[(int) ((h >>> 24) & 0xFF)]
+					^ t4[(int) ((h >>> 32) & 0xFF)]
+					^ t5[(int) ((h >>> 40) & 0xFF)]
+					^ t6[(int) ((h >>> 48) & 0xFF)]
+					^ t7[(int) (h >>> 56)];
+			i += 8;
+		}
+
+		// remaining bytes one at a time
+		while (i < max) {
+			int j = (int) ((f >> shift) & 0x1FF);
+			f = ((f << 8) | (buffer.get(i++) & 0xFF)) ^ pushTable[j];
+		}
+		fingerprint = f;
+		buffer.position(max);
+	}
+
+	private static long readLong(final byte[] bytes, final int i) {
+		return ((long) bytes[i] << 56)
+				| ((bytes[i + 1] & 0xFFL) << 48)
+				| ((bytes[i + 2] & 0xFFL) << 40)
+				| ((bytes[i + 3] & 0xFFL) << 32)
+				| ((bytes[i + 4] & 0xFFL) << 24)
+				| ((bytes[i + 5] & 0xFFL) << 16)
+				| ((bytes[i + 6] & 0xFFL) << 8)
+				| (bytes[i + 7] & 0xFFL);
+	}
+
+	private static long readInt(final byte[] bytes, final int i) {
+		return ((bytes[i] & 0xFFL) << 24)
+				| ((bytes[i + 1] & 0xFFL) << 16)
+				| ((bytes[i + 2] & 0xFFL) << 8)
+				| (bytes[i + 3] & 0xFFL);
+	}
+}
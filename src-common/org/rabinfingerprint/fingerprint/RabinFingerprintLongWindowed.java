@@ -1,86 +1,214 @@
 package org.rabinfingerprint.fingerprint;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
-import org.rabinfingerprint.datastructures.CircularByteQueue;
-import org.rabinfingerprint.fingerprint.Fingerprint.WindowedFingerprint;
+import org.rabinfingerprint.fingerprint.Fingerprint.LongWindowedFingerprint;
+import org.rabinfingerprint.polynomial.BitPolynomial;
 import org.rabinfingerprint.polynomial.Polynomial;
 
-public class RabinFingerprintLongWindowed extends RabinFingerprintLong implements WindowedFingerprint<Polynomial> {
+/**
+ * A windowed {@link RabinFingerprintLong}: the fingerprint only covers the last
+ * bytesPerWindow bytes pushed.
+ * 
+ * The last window of bytes is kept in a plain ring buffer whose oldest entry is
+ * always the next slot to be overwritten, so no modulo or queue bookkeeping is
+ * needed per byte. The bulk {@link #pushBytes} methods go further and read the
+ * byte leaving the window straight out of the input once a whole window of it
+ * has been pushed, copying only the final window into the ring for the next
+ * call.
+ */
+public class RabinFingerprintLongWindowed extends RabinFingerprintLong implements LongWindowedFingerprint<Polynomial> {
 
-	protected final CircularByteQueue byteWindow;
 	protected final long bytesPerWindow;
 	protected final long[] popTable;
 
+	/** the last bytesPerWindow bytes pushed */
+	protected final byte[] window;
+	/** the next slot to write, which holds the oldest byte once full */
+	protected int windowIndex;
+	/** the number of bytes currently in the window */
+	protected int windowCount;
+
 	public RabinFingerprintLongWindowed(Polynomial poly, long bytesPerWindow) {
 		super(poly);
+		if (bytesPerWindow < 1 || bytesPerWindow > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Window size must be between 1 and " + Integer.MAX_VALUE);
+		}
 		this.bytesPerWindow = bytesPerWindow;
-		this.byteWindow = new CircularByteQueue((int) bytesPerWindow + 1);
-		this.popTable = new long[256];
-		precomputePopTable();
+		this.window = new byte[(int) bytesPerWindow];
+		this.popTable = getPopTable(poly, bytesPerWindow);
 	}
 
 	public RabinFingerprintLongWindowed(RabinFingerprintLongWindowed that) {
 		super(that);
 		this.bytesPerWindow = that.bytesPerWindow;
-		this.byteWindow = new CircularByteQueue((int) bytesPerWindow + 1);
+		this.window = new byte[(int) bytesPerWindow];
 		this.popTable = that.popTable;
 	}
 
-	private void precomputePopTable() {
+	/**
+	 * Returns the shared pop table for the polynomial and window size.
+	 */
+	static long[] getPopTable(Polynomial poly, final long bytesPerWindow) {
+		final BitPolynomial p = BitPolynomial.createFromPolynomial(poly);
+		return TableCache.get("long.pop", p, bytesPerWindow, new TableCache.Loader<long[]>() {
+			@Override
+			long[] load() {
+				return precomputePopTable(p, bytesPerWindow);
+			}
+		});
+	}
+
+	/**
+	 * Precomputes (b * x^(8 * bytesPerWindow) mod p) for every byte b. The
+	 * power of x is computed once and multiplied by each byte.
+	 */
+	private static long[] precomputePopTable(BitPolynomial p, long bytesPerWindow) {
+		final long[] popTable = new long[256];
+		final BitPolynomial shifted = BitPolynomial.X.modPow(BigInteger.valueOf(bytesPerWindow * 8), p);
 		for (int i = 0; i < 256; i++) {
-			Polynomial f = Polynomial.createFromLong(i);
-			f = f.shiftLeft(BigInteger.valueOf(bytesPerWindow * 8));
-			f = f.mod(poly);
-			popTable[i] = f.toBigInteger().longValue();
+			BitPolynomial f = BitPolynomial.createFromLong(i);
+			f = f.multiply(shifted).mod(p);
+			popTable[i] = f.longValue();
 		}
+		return popTable;
 	}
 
 	@Override
 	public void pushBytes(final byte[] bytes) {
-		for (byte b : bytes) {
-			int j = (int) ((fingerprint >> shift) & 0x1FF);
-			fingerprint = ((fingerprint << 8) | (b & 0xFF)) ^ pushTable[j];
-			byteWindow.add(b);
-			if (byteWindow.isFull()) popByte();
-		}
+		pushBytes(bytes, 0, bytes.length);
 	}
 
 	@Override
 	public void pushBytes(final byte[] bytes, final int offset, final int length) {
+		final int size = window.length;
 		final int max = offset + length;
+		final int head = (int) Math.min(max, (long) offset + size);
 		int i = offset;
+
+		// the outgoing bytes of the first window come from the ring
+		while (i < head) {
+			pushByte(bytes[i++]);
+		}
+		if (i == max) return;
+
+		// the window is full and its outgoing bytes are in the input
+		long f = fingerprint;
 		while (i < max) {
-			byte b = bytes[i++];
-			int j = (int) ((fingerprint >> shift) & 0x1FF);
-			fingerprint = ((fingerprint << 8) | (b & 0xFF)) ^ pushTable[j];
-			byteWindow.add(b);
-			if (byteWindow.isFull()) popByte();
+			int j = (int) ((f >> shift) & 0x1FF);
+			f = ((f << 8) | (bytes[i] & 0xFF)) ^ pushTable[j] ^ popTable[bytes[i - size] & 0xFF];
+			i++;
 		}
+		fingerprint = f;
+
+		// carry the last window over to the next call
+		System.arraycopy(bytes, max - size, window, 0, size);
+		windowIndex = 0;
+	}
+
+	/**
+	 * Pushes the bytes like {@link #pushBytes(byte[], int, int)} and stores the
+	 * fingerprint of the window ending at every byte, i.e. fingerprints[k] is
+	 * the fingerprint after pushing bytes[offset + k].
+	 * 
+	 * This lets boundary detection and pattern matching run as separate tight
+	 * passes over the fingerprints instead of interleaving a
+	 * {@link #getFingerprintLong} call with every {@link #pushByte}.
+	 */
+	public void pushBytes(final byte[] bytes, final int offset, final int length, final long[] fingerprints) {
+		final int size = window.length;
+		final int max = offset + length;
+		final int head = (int) Math.min(max, (long) offset + size);
+		int i = offset;
+
+		// the outgoing bytes of the first window come from the ring
+		while (i < head) {
+			pushByte(bytes[i]);
+			fingerprints[i++ - offset] = fingerprint;
+		}
+		if (i == max) return;
+
+		// the window is full and its outgoing bytes are in the input
+		long f = fingerprint;
+		while (i < max) {
+			int j = (int) ((f >> shift) & 0x1FF);
+			f = ((f << 8) | (bytes[i] & 0xFF)) ^ pushTable[j] ^ popTable[bytes[i - size] & 0xFF];
+			fingerprints[i++ - offset] = f;
+		}
+		fingerprint = f;
+
+		// carry the last window over to the next call
+		System.arraycopy(bytes, max - size, window, 0, size);
+		windowIndex = 0;
+	}
+
+	@Override
+	public void pushBytes(final ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			super.pushBytes(buffer);
+			return;
+		}
+		final int size = window.length;
+		final int max = buffer.limit();
+		final int head = (int) Math.min(max, (long) buffer.position() + size);
+		int i = buffer.position();
+		buffer.position(max);
+
+		// the outgoing bytes of the first window come from the ring
+		while (i < head) {
+			pushByte(buffer.get(i++));
+		}
+		if (i == max) return;
+
+		// the window is full and its outgoing bytes are in the buffer
+		long f = fingerprint;
+		while (i < max) {
+			int j = (int) ((f >> shift) & 0x1FF);
+			f = ((f << 8) | (buffer.get(i) & 0xFF)) ^ pushTable[j] ^ popTable[buffer.get(i - size) & 0xFF];
+			i++;
+		}
+		fingerprint = f;
+
+		// carry the last window over to the next call
+		for (int k = 0; k < size; k++) {
+			window[k] = buffer.get(max - size + k);
+		}
+		windowIndex = 0;
 	}
 
 	@Override
 	public void pushByte(byte b) {
 		int j = (int) ((fingerprint >> shift) & 0x1FF);
 		fingerprint = ((fingerprint << 8) | (b & 0xFF)) ^ pushTable[j];
-		byteWindow.add(b);
-		if (byteWindow.isFull()) popByte();
+
+		final byte out = window[windowIndex];
+		window[windowIndex] = b;
+		if (++windowIndex == window.length) windowIndex = 0;
+		if (windowCount == window.length) {
+			fingerprint ^= popTable[out & 0xFF];
+		} else {
+			windowCount++;
+		}
 	}
 
 	/**
-	 * Removes the contribution of the first byte in the byte queue from the
-	 * fingerprint.
+	 * Removes the contribution of the oldest byte in the window from the
+	 * fingerprint. This happens automatically once the window is full.
 	 * 
 	 * {@link RabinFingerprintPolynomial#popByte}
 	 */
 	public void popByte() {
-		byte b = byteWindow.poll();
-		fingerprint ^= popTable[(b & 0xFF)];
+		int oldest = windowIndex - windowCount;
+		if (oldest < 0) oldest += window.length;
+		fingerprint ^= popTable[window[oldest] & 0xFF];
+		windowCount--;
 	}
 
 	@Override
 	public void reset() {
 		super.reset();
-		byteWindow.clear();
+		windowIndex = 0;
+		windowCount = 0;
 	}
 }
@@ -0,0 +1,103 @@
+package org.rabinfingerprint.fingerprint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.rabinfingerprint.polynomial.BitPolynomial;
+
+/**
+ * A process-wide cache of the lookup tables precomputed by the fingerprint
+ * classes, keyed by the kind of table, the polynomial and the window size.
+ * Building a fingerprint for a configuration that has been seen before then
+ * only costs the cache lookup.
+ *
+ * The cache holds at most {@link #MAX_ENTRIES} tables and evicts the least
+ * recently used one first. Cached tables are shared between all fingerprints
+ * using them and must never be written to once they are returned by
+ * {@link Loader#load}.
+ */
+final class TableCache {
+	static final int MAX_ENTRIES = 64;
+
+	/**
+	 * Builds a table on a cache miss.
+	 */
+	static abstract class Loader<T> {
+		abstract T load();
+	}
+
+	private static final Map<Key, Object> tables = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private TableCache() {
+	}
+
+	/**
+	 * Returns the cached table for the key, building it with the loader if it
+	 * is not cached yet. The loader runs outside of the lock, so two threads
+	 * may occasionally build the same table; the first one stored wins.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T get(String kind, BitPolynomial poly, long bytesPerWindow, Loader<T> loader) {
+		final Key key = new Key(kind, poly, bytesPerWindow);
+		synchronized (tables) {
+			Object table = tables.get(key);
+			if (table != null) return (T) table;
+		}
+		T table = loader.load();
+		synchronized (tables) {
+			Object existing = tables.get(key);
+			if (existing != null) return (T) existing;
+			tables.put(key, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Drops all cached tables.
+	 */
+	static void clear() {
+		synchronized (tables) {
+			tables.clear();
+		}
+	}
+
+	static int size() {
+		synchronized (tables) {
+			return tables.size();
+		}
+	}
+
+	private static final class Key {
+		private final String kind;
+		private final BitPolynomial poly;
+		private final long bytesPerWindow;
+
+		Key(String kind, BitPolynomial poly, long bytesPerWindow) {
+			this.kind = kind;
+			this.poly = poly;
+			this.bytesPerWindow = bytesPerWindow;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key that = (Key) o;
+			return kind.equals(that.kind) && poly.equals(that.poly) && bytesPerWindow == that.bytesPerWindow;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = kind.hashCode();
+			h = 31 * h + poly.hashCode();
+			h = 31 * h + (int) (bytesPerWindow ^ (bytesPerWindow >>> 32));
+			return h;
+		}
+	}
+}
@@ -0,0 +1,564 @@
+package org.rabinfingerprint.polynomial;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.rabinfingerprint.polynomial.Polynomial.Reducibility;
+
+/**
+ * An immutable polynomial in the finite field GF(2^k) whose coefficients are
+ * packed into an array of longs.
+ *
+ * This supports the same arithmetic and reducibility tests as
+ * {@link Polynomial}, but shifts, xors and reductions work a word at a time
+ * instead of a term at a time, which makes it orders of magnitude faster for
+ * the degrees used in fingerprinting.
+ *
+ * Word 0 holds the terms of degree 0 to 63, word 1 the terms of degree 64 to
+ * 127, and so on. The array never has leading zero words, so the zero
+ * polynomial has no words at all.
+ */
+public class BitPolynomial implements Arithmetic<BitPolynomial>, Comparable<BitPolynomial> {
+
+	/** the polynomial "0" */
+	public static final BitPolynomial ZERO = new BitPolynomial(new long[0]);
+
+	/** the polynomial "1" */
+	public static final BitPolynomial ONE = BitPolynomial.createFromLong(1L);
+
+	/** the polynomial "x" */
+	public static final BitPolynomial X = BitPolynomial.createFromLong(2L);
+
+	/**
+	 * Constructs a polynomial using the bits from a long.
+	 */
+	public static BitPolynomial createFromLong(long l) {
+		return new BitPolynomial(new long[] { l });
+	}
+
+	/**
+	 * Constructs a polynomial using the bits from an array of longs, least
+	 * significant word first.
+	 */
+	public static BitPolynomial createFromLongs(long[] words) {
+		return new BitPolynomial(words.clone());
+	}
+
+	/**
+	 * Constructs a polynomial using the bits of a non-negative BigInteger.
+	 */
+	public static BitPolynomial createFromBigInteger(BigInteger b) {
+		if (b.signum() < 0) {
+			throw new IllegalArgumentException("Polynomial bits cannot be negative");
+		}
+		long[] words = new long[(b.bitLength() + 63) / 64];
+		for (int k = 0; k < words.length; k++) {
+			words[k] = b.shiftRight(64 * k).longValue();
+		}
+		return new BitPolynomial(words);
+	}
+
+	/**
+	 * Constructs a polynomial with the same terms as the {@link Polynomial}.
+	 */
+	public static BitPolynomial createFromPolynomial(Polynomial p) {
+		return createFromBigInteger(p.toBigInteger());
+	}
+
+	/**
+	 * Constructs a random monic polynomial of degree "degree"
+	 */
+	public static BitPolynomial createRandom(int degree, Random random) {
+		long[] words = new long[degree / 64 + 1];
+		for (int k = 0; k < words.length; k++) {
+			words[k] = random.nextLong();
+		}
+		words[words.length - 1] &= (1L << (degree % 64)) - 1;
+		words[words.length - 1] |= 1L << (degree % 64);
+		return new BitPolynomial(words);
+	}
+
+	/**
+	 * Constructs a random monic polynomial of degree "degree"
+	 */
+	public static BitPolynomial createRandom(int degree) {
+		return createRandom(degree, new Random());
+	}
+
+	/**
+	 * Finds a random irreducible polynomial of degree "degree"
+	 */
+	public static BitPolynomial createIrreducible(int degree) {
+		return createIrreducible(degree, new Random());
+	}
+
+	/**
+	 * Finds a random irreducible polynomial of degree "degree", drawing the
+	 * candidates from the given source so that a seeded source always gives
+	 * the same polynomial.
+	 * 
+	 * Degrees that fit in a long are tested entirely with long arithmetic.
+	 */
+	public static BitPolynomial createIrreducible(int degree, Random random) {
+		while (true) {
+			BitPolynomial p = createRandom(degree, random);
+			if (degree <= 62) {
+				if (Polynomials.getReducibility(p.longValue()) == Reducibility.IRREDUCIBLE)
+					return p;
+			} else if (p.getReducibility() == Reducibility.IRREDUCIBLE) {
+				return p;
+			}
+		}
+	}
+
+	/**
+	 * The coefficients, least significant word first, without leading zero
+	 * words.
+	 */
+	private final long[] words;
+
+	/**
+	 * Takes ownership of the array, trimming any leading zero words.
+	 */
+	private BitPolynomial(long[] words) {
+		int length = words.length;
+		while (length > 0 && words[length - 1] == 0) {
+			length--;
+		}
+		this.words = (length == words.length) ? words : Arrays.copyOf(words, length);
+	}
+
+	/**
+	 * Returns the degree of the highest term or -1 otherwise.
+	 */
+	public int degree() {
+		if (words.length == 0)
+			return -1;
+		return 64 * words.length - 1 - Long.numberOfLeadingZeros(words[words.length - 1]);
+	}
+
+	/**
+	 * Tests if the polynomial is empty, i.e. it has no terms
+	 */
+	public boolean isEmpty() {
+		return words.length == 0;
+	}
+
+	/**
+	 * Tests if there exists a term with degree k
+	 */
+	public boolean hasDegree(int k) {
+		return testBit(words, k);
+	}
+
+	/**
+	 * Computes (this + that) in GF(2^k)
+	 */
+	public BitPolynomial add(BitPolynomial that) {
+		return xor(that);
+	}
+
+	/**
+	 * Computes (this - that) in GF(2^k)
+	 */
+	public BitPolynomial subtract(BitPolynomial that) {
+		return xor(that);
+	}
+
+	/**
+	 * Computes (this * that) in GF(2^k) with schoolbook carry-less
+	 * multiplication of the words.
+	 */
+	public BitPolynomial multiply(BitPolynomial that) {
+		if (this.isEmpty() || that.isEmpty())
+			return ZERO;
+		final long[] a = this.words, b = that.words;
+		final long[] product = new long[a.length + b.length];
+		for (int i = 0; i < a.length; i++) {
+			for (int j = 0; j < b.length; j++) {
+				multiplyWords(a[i], b[j], product, i + j);
+			}
+		}
+		return new BitPolynomial(product);
+	}
+
+	/**
+	 * Computes (this * this) in GF(2^k). Squaring in GF(2) just spreads the
+	 * bits apart, which is much cheaper than a general multiplication.
+	 */
+	public BitPolynomial square() {
+		final long[] square = new long[2 * words.length];
+		for (int i = 0; i < words.length; i++) {
+			square[2 * i] = spreadBits((int) words[i]);
+			square[2 * i + 1] = spreadBits((int) (words[i] >>> 32));
+		}
+		return new BitPolynomial(square);
+	}
+
+	/**
+	 * Computes (this & that) in GF(2^k)
+	 */
+	public BitPolynomial and(BitPolynomial that) {
+		final int length = Math.min(this.words.length, that.words.length);
+		final long[] result = new long[length];
+		for (int k = 0; k < length; k++) {
+			result[k] = this.words[k] & that.words[k];
+		}
+		return new BitPolynomial(result);
+	}
+
+	/**
+	 * Computes (this | that) in GF(2^k)
+	 */
+	public BitPolynomial or(BitPolynomial that) {
+		final long[] result = Arrays.copyOf(this.words, Math.max(this.words.length, that.words.length));
+		for (int k = 0; k < that.words.length; k++) {
+			result[k] |= that.words[k];
+		}
+		return new BitPolynomial(result);
+	}
+
+	/**
+	 * Computes (this ^ that) in GF(2^k)
+	 */
+	public BitPolynomial xor(BitPolynomial that) {
+		final long[] result = Arrays.copyOf(this.words, Math.max(this.words.length, that.words.length));
+		for (int k = 0; k < that.words.length; k++) {
+			result[k] ^= that.words[k];
+		}
+		return new BitPolynomial(result);
+	}
+
+	/**
+	 * Computes (this mod that) in GF(2^k) using synthetic division, xoring in
+	 * a shifted copy of that a word at a time.
+	 */
+	public BitPolynomial mod(BitPolynomial that) {
+		final int db = that.degree();
+		if (db < 0)
+			throw new ArithmeticException("Division by the zero polynomial");
+		final long[] register = this.words.clone();
+		for (int i = this.degree(); i >= db; i--) {
+			if (testBit(register, i)) {
+				xorShifted(register, that.words, i - db);
+			}
+		}
+		return new BitPolynomial(register);
+	}
+
+	/**
+	 * Computes (this << shift) in GF(2^k)
+	 */
+	public BitPolynomial shiftLeft(int shift) {
+		if (isEmpty())
+			return this;
+		final long[] result = new long[words.length + shift / 64 + 1];
+		xorShifted(result, words, shift);
+		return new BitPolynomial(result);
+	}
+
+	/**
+	 * Computes (this >> shift) in GF(2^k)
+	 */
+	public BitPolynomial shiftRight(int shift) {
+		final int wordShift = shift / 64;
+		final int bitShift = shift % 64;
+		if (wordShift >= words.length)
+			return ZERO;
+		final long[] result = new long[words.length - wordShift];
+		for (int k = 0; k < result.length; k++) {
+			result[k] = words[k + wordShift] >>> bitShift;
+			if (bitShift != 0 && k + wordShift + 1 < words.length) {
+				result[k] |= words[k + wordShift + 1] << (64 - bitShift);
+			}
+		}
+		return new BitPolynomial(result);
+	}
+
+	/**
+	 * Computes (this^e mod m).
+	 *
+	 * http://en.wikipedia.org/wiki/Modular_exponentiation
+	 */
+	public BitPolynomial modPow(BigInteger e, BitPolynomial m) {
+		BitPolynomial result = ONE.mod(m);
+		BitPolynomial b = this.mod(m);
+		for (int i = 0; i < e.bitLength(); i++) {
+			if (e.testBit(i)) {
+				result = result.multiply(b).mod(m);
+			}
+			b = b.square().mod(m);
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the greatest common divisor between polynomials using Euclid's
+	 * algorithm
+	 *
+	 * http://en.wikipedia.org/wiki/Euclids_algorithm
+	 */
+	public BitPolynomial gcd(BitPolynomial that) {
+		BitPolynomial a = this;
+		while (!that.isEmpty()) {
+			BitPolynomial t = that;
+			that = a.mod(that);
+			a = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Tests the reducibility of the polynomial
+	 */
+	public boolean isReducible() {
+		return getReducibility() == Reducibility.REDUCIBLE;
+	}
+
+	/**
+	 * Tests the reducibility of the polynomial. Like
+	 * {@link Polynomial#getReducibility}, the constants and "x" count as
+	 * reducible since they are useless for fingerprinting.
+	 * 
+	 * This uses the Ben-Or test, which rejects most random candidates after
+	 * the first few steps. {@link #getReducibilityRabin} takes fewer steps to
+	 * confirm an irreducible polynomial but always runs to the end, so it
+	 * only pays off when the polynomial is already likely to be irreducible.
+	 */
+	public Reducibility getReducibility() {
+		// test trivial cases
+		if (degree() < 1)
+			return Reducibility.REDUCIBLE;
+		if (this.equals(X))
+			return Reducibility.REDUCIBLE;
+
+		// sieve out the factors x and (x + 1)
+		if (degree() > 1 && (!hasDegree(0) || getTermCount() % 2 == 0))
+			return Reducibility.REDUCIBLE;
+
+		// do full-on reducibility test
+		return getReducibilityBenOr();
+	}
+
+	/**
+	 * BenOr Reducibility Test
+	 *
+	 * Tests and Constructions of Irreducible Polynomials over Finite Fields
+	 * (1997) Shuhong Gao, Daniel Panario
+	 *
+	 * http://citeseer.ist.psu.edu/cache/papers/cs/27167/http:zSzzSzwww.math.clemson.eduzSzfacultyzSzGaozSzpaperszSzGP97a.pdf/gao97tests.pdf
+	 *
+	 * Each x^(2^i) mod f is computed by squaring the previous one rather than
+	 * from scratch.
+	 */
+	protected Reducibility getReducibilityBenOr() {
+		final int degree = degree();
+		BitPolynomial x_to_q_to_i = X;
+		for (int i = 1; i <= degree / 2; i++) {
+			x_to_q_to_i = x_to_q_to_i.square().mod(this);
+			BitPolynomial g = this.gcd(x_to_q_to_i.xor(X));
+			if (!g.equals(ONE))
+				return Reducibility.REDUCIBLE;
+		}
+		return Reducibility.IRREDUCIBLE;
+	}
+
+	/**
+	 * Rabin's Reducibility Test
+	 * 
+	 * A polynomial f of degree n is irreducible if and only if x^(2^n) = x
+	 * mod f and gcd(x^(2^(n/q)) - x, f) = 1 for every prime factor q of n.
+	 * For a prime degree this is a single gcd, computed along the way to
+	 * x^(2^n).
+	 * 
+	 * Michael O. Rabin, "Probabilistic algorithms in finite fields" (1980)
+	 */
+	public Reducibility getReducibilityRabin() {
+		if (degree() < 1 || this.equals(X))
+			return Reducibility.REDUCIBLE;
+
+		final int degree = degree();
+		final int[] factors = Polynomials.getPrimeFactors(degree);
+		BitPolynomial x_to_q_to_i = X;
+		int next = factors.length - 1;
+		for (int i = 1; i <= degree; i++) {
+			x_to_q_to_i = x_to_q_to_i.square().mod(this);
+			if (next >= 0 && i == degree / factors[next]) {
+				BitPolynomial g = this.gcd(x_to_q_to_i.xor(X));
+				if (!g.equals(ONE))
+					return Reducibility.REDUCIBLE;
+				next--;
+			}
+		}
+		// x itself is only reduced for degree 1
+		if (!x_to_q_to_i.equals(X.mod(this)))
+			return Reducibility.REDUCIBLE;
+		return Reducibility.IRREDUCIBLE;
+	}
+
+	/**
+	 * Returns the number of terms of the polynomial
+	 */
+	public int getTermCount() {
+		int count = 0;
+		for (long word : words) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the terms of degree 0 to 63 as a long
+	 */
+	public long longValue() {
+		return words.length == 0 ? 0L : words[0];
+	}
+
+	/**
+	 * Returns a copy of the words of this polynomial, least significant first
+	 */
+	public long[] toLongArray() {
+		return words.clone();
+	}
+
+	/**
+	 * Construct a BigInteger whose value represents this polynomial.
+	 */
+	public BigInteger toBigInteger() {
+		byte[] bytes = new byte[8 * words.length];
+		for (int k = 0; k < words.length; k++) {
+			for (int i = 0; i < 8; i++) {
+				bytes[bytes.length - 8 * k - 1 - i] = (byte) (words[k] >>> (8 * i));
+			}
+		}
+		return new BigInteger(1, bytes);
+	}
+
+	/**
+	 * Constructs the equivalent {@link Polynomial}
+	 */
+	public Polynomial toPolynomial() {
+		return Polynomial.createFromBytes(toBigInteger().toByteArray());
+	}
+
+	/**
+	 * Returns a string of hex characters representing this polynomial
+	 */
+	public String toHexString() {
+		return toBigInteger().toString(16).toUpperCase();
+	}
+
+	/**
+	 * Returns standard ascii representation of this polynomial in the form:
+	 *
+	 * e.g.: x^8 + x^4 + x^3 + x + 1
+	 */
+	public String toPolynomialString() {
+		StringBuilder str = new StringBuilder();
+		for (int degree = degree(); degree >= 0; degree--) {
+			if (!hasDegree(degree))
+				continue;
+			if (str.length() != 0) {
+				str.append(" + ");
+			}
+			if (degree == 0) {
+				str.append("1");
+			} else {
+				str.append("x^" + degree);
+			}
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Default toString override uses the ascii representation
+	 */
+	@Override
+	public String toString() {
+		return toPolynomialString();
+	}
+
+	/**
+	 * Compares this polynomial to the other, first by degree and then by the
+	 * highest differing term, like {@link Polynomial#compareTo}.
+	 */
+	public int compareTo(BitPolynomial o) {
+		if (this.words.length != o.words.length)
+			return this.words.length < o.words.length ? -1 : 1;
+		for (int k = words.length - 1; k >= 0; k--) {
+			if (this.words[k] != o.words[k]) {
+				return (this.words[k] ^ Long.MIN_VALUE) < (o.words[k] ^ Long.MIN_VALUE) ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(words);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		return Arrays.equals(words, ((BitPolynomial) obj).words);
+	}
+
+	private static boolean testBit(long[] words, int index) {
+		final int k = index >>> 6;
+		return k < words.length && ((words[k] >>> (index & 63)) & 1) == 1;
+	}
+
+	/**
+	 * Computes target ^= (source << shift) in place. The target must be long
+	 * enough to hold the shifted source, ignoring its leading zero bits.
+	 */
+	private static void xorShifted(long[] target, long[] source, int shift) {
+		final int wordShift = shift >>> 6;
+		final int bitShift = shift & 63;
+		for (int k = 0; k < source.length; k++) {
+			target[k + wordShift] ^= source[k] << bitShift;
+			if (bitShift != 0) {
+				final long carry = source[k] >>> (64 - bitShift);
+				if (carry != 0) {
+					target[k + wordShift + 1] ^= carry;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the 128 bit carry-less product of two words and xors it into
+	 * the target at the word offset.
+	 */
+	private static void multiplyWords(long a, long b, long[] target, int offset) {
+		long low = 0, high = 0;
+		while (b != 0) {
+			final int i = Long.numberOfTrailingZeros(b);
+			low ^= a << i;
+			if (i != 0) {
+				high ^= a >>> (64 - i);
+			}
+			b &= b - 1;
+		}
+		target[offset] ^= low;
+		target[offset + 1] ^= high;
+	}
+
+	/**
+	 * Spreads the 32 bits of the int out to the even bits of a long.
+	 */
+	private static long spreadBits(int i) {
+		long x = i & 0xFFFFFFFFL;
+		x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+}
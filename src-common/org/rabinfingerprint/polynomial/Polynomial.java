@@ -76,7 +76,13 @@ public class Polynomial implements Arithmetic< Polynomial >, Comparable< Polynom
 	 * Constructs a random polynomial of degree "degree"
 	 */
 	public static Polynomial createRandom(int degree) {
-		Random random = new Random();
+		return createRandom(degree, new Random());
+	}
+
+	/**
+	 * Constructs a random polynomial of degree "degree" from the given source
+	 */
+	public static Polynomial createRandom(int degree, Random random) {
 		byte[] bytes = new byte[(degree / 8) + 1];
 		random.nextBytes(bytes);
 		return createFromBytes(bytes, degree);
@@ -86,11 +92,18 @@ public class Polynomial implements Arithmetic< Polynomial >, Comparable< Polynom
 	 * Finds a random irreducible polynomial of degree "degree"
 	 */
 	public static Polynomial createIrreducible(int degree) {
-		while (true) {
-			Polynomial p = createRandom(degree);
-			if (p.getReducibility() == Reducibility.IRREDUCIBLE)
-				return p;
-		}
+		return createIrreducible(degree, new Random());
+	}
+
+	/**
+	 * Finds a random irreducible polynomial of degree "degree", drawing the
+	 * candidates from the given source. A seeded source always gives the same
+	 * polynomial.
+	 * 
+	 * The search runs on the much faster {@link BitPolynomial} representation.
+	 */
+	public static Polynomial createIrreducible(int degree, Random random) {
+		return BitPolynomial.createIrreducible(degree, random).toPolynomial();
 	}
 
 	/**
@@ -442,17 +455,11 @@ public class Polynomial implements Arithmetic< Polynomial >, Comparable< Polynom
 	}
 
 	/**
-	 * Tests the reducibility of the polynomial
+	 * Tests the reducibility of the polynomial. The test itself runs on the
+	 * much faster {@link BitPolynomial} representation.
 	 */
 	public Reducibility getReducibility() {
-		// test trivial cases
-		if (this.compareTo(Polynomial.ONE) == 0)
-			return Reducibility.REDUCIBLE;
-		if (this.compareTo(Polynomial.X) == 0)
-			return Reducibility.REDUCIBLE;
-
-		// do full-on reducibility test
-		return getReducibilityBenOr();
+		return BitPolynomial.createFromPolynomial(this).getReducibility();
 	}
 
 	/**
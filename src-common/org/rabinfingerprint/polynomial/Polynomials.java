@@ -1,5 +1,7 @@
 package org.rabinfingerprint.polynomial;
 
+import org.rabinfingerprint.polynomial.Polynomial.Reducibility;
+
 public class Polynomials {
 	/**
 	 * Generates a handful of irreducible polynomials of the specified degree.
@@ -37,15 +39,104 @@ public class Polynomials {
 		return a;
 	}
 
+	/**
+	 * Computes (a * b mod m) where a, b and m represent polynomials in GF(2^k).
+	 * Both a and b must already be reduced mod m, and m must be of degree 62 or
+	 * less so that the intermediate product fits in a long.
+	 */
+	public static long multiplyMod(long a, long b, long m) {
+		final int mb = getMaxBit(m);
+		long r = 0;
+		for (int i = getMaxBit(b); i >= 0; i--) {
+			r <<= 1;
+			if (getBit(r, mb))
+				r ^= m;
+			if (getBit(b, i))
+				r ^= a;
+		}
+		return r;
+	}
+
+	/**
+	 * Computes (a^e mod m) where a and m represent polynomials in GF(2^k), with
+	 * the same restrictions as {@link #multiplyMod}.
+	 * 
+	 * http://en.wikipedia.org/wiki/Modular_exponentiation
+	 */
+	public static long modPow(long a, long e, long m) {
+		long result = mod(1L, m);
+		long b = mod(a, m);
+		while (e != 0) {
+			if ((e & 1) == 1) {
+				result = multiplyMod(result, b, m);
+			}
+			e >>>= 1;
+			b = multiplyMod(b, b, m);
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the greatest common divisor of a and b where a and b represent
+	 * polynomials in GF(2^k).
+	 */
+	public static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = b;
+			b = mod(a, b);
+			a = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Tests the reducibility of the polynomial represented by the long, which
+	 * must be of degree 62 or less. This is the Ben-Or test of
+	 * {@link BitPolynomial#getReducibility} done entirely in long arithmetic.
+	 */
+	public static Reducibility getReducibility(long f) {
+		final int degree = getMaxBit(f);
+		if (degree < 1 || f == 2L)
+			return Reducibility.REDUCIBLE;
+		if (degree > 1 && ((f & 1L) == 0 || Long.bitCount(f) % 2 == 0))
+			return Reducibility.REDUCIBLE;
+
+		long x_to_q_to_i = 2L;
+		for (int i = 1; i <= degree / 2; i++) {
+			x_to_q_to_i = multiplyMod(x_to_q_to_i, x_to_q_to_i, f);
+			if (gcd(f, x_to_q_to_i ^ 2L) != 1L)
+				return Reducibility.REDUCIBLE;
+		}
+		return Reducibility.IRREDUCIBLE;
+	}
+
+	/**
+	 * Returns the distinct prime factors of n in ascending order.
+	 */
+	public static int[] getPrimeFactors(int n) {
+		int[] factors = new int[32];
+		int count = 0;
+		for (int p = 2; (long) p * p <= n; p++) {
+			if (n % p != 0)
+				continue;
+			factors[count++] = p;
+			while (n % p == 0) {
+				n /= p;
+			}
+		}
+		if (n > 1) {
+			factors[count++] = n;
+		}
+		int[] result = new int[count];
+		System.arraycopy(factors, 0, result, 0, count);
+		return result;
+	}
+
 	/**
 	 * Returns the index of the maximum set bit. If no bits are set, returns -1.
 	 */
 	public static int getMaxBit(long l) {
-		for (int i = 64 - 1; i >= 0; i--) {
-			if (getBit(l, i))
-				return i;
-		}
-		return -1;
+		return 63 - Long.numberOfLeadingZeros(l);
 	}
 
 	/**
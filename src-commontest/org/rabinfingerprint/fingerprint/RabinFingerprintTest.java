@@ -1,10 +1,22 @@
 package org.rabinfingerprint.fingerprint;
 
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.TestCase;
 
+import org.rabinfingerprint.fingerprint.Fingerprint.LongFingerprint;
 import org.rabinfingerprint.polynomial.Polynomial;
 
 public class RabinFingerprintTest extends TestCase {
@@ -64,4 +76,281 @@ public class RabinFingerprintTest extends TestCase {
 			assertEquals(0, rabin0.getFingerprint().compareTo(rabin1.getFingerprint()));
 		}
 	}
+
+	public static void testSlicedMatchesLong() {
+		Random random = new Random(System.currentTimeMillis());
+		byte[] data = new byte[1024];
+		random.nextBytes(data);
+
+		// the fingerprint does not depend on irreducibility, so any monic
+		// polynomial covers each supported degree
+		for (int degree = 8; degree <= 54; degree++) {
+			Polynomial p = Polynomial.createRandom(degree);
+			final RabinFingerprintLong rabin0 = new RabinFingerprintLong(p);
+			final RabinFingerprintLong rabin1 = new RabinFingerprintLongSliced(p);
+			rabin0.pushBytes(data);
+			rabin1.pushBytes(data);
+			assertEquals(rabin0.getFingerprintLong(), rabin1.getFingerprintLong());
+
+			// mix bulk pushes of every tail length with single bytes
+			for (int length = 0; length < 20; length++) {
+				int offset = random.nextInt(data.length - length);
+				rabin0.pushBytes(data, offset, length);
+				rabin1.pushBytes(data, offset, length);
+				rabin0.pushByte(data[length]);
+				rabin1.pushByte(data[length]);
+				assertEquals(rabin0.getFingerprintLong(), rabin1.getFingerprintLong());
+			}
+		}
+	}
+
+	public static void testByteBuffers() {
+		Random random = new Random(System.currentTimeMillis());
+		byte[] data = new byte[1021];
+		random.nextBytes(data);
+		Polynomial p = Polynomial.createIrreducible(53);
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+		ByteBuffer[] buffers = new ByteBuffer[] {
+				ByteBuffer.wrap(data, 3, data.length - 3).slice(),
+				ByteBuffer.wrap(data, 3, data.length - 3).asReadOnlyBuffer(),
+				((ByteBuffer) direct.duplicate().position(3)).slice(),
+				((ByteBuffer) direct.duplicate().position(3)).slice().order(ByteOrder.LITTLE_ENDIAN) };
+
+		final RabinFingerprintLong[] rabins = new RabinFingerprintLong[] {
+				new RabinFingerprintLong(p),
+				new RabinFingerprintLongSliced(p),
+				new RabinFingerprintLongWindowed(p, 16) };
+		for (RabinFingerprintLong rabin : rabins) {
+			rabin.pushBytes(data, 3, data.length - 3);
+			final long expected = rabin.getFingerprintLong();
+			for (ByteBuffer buffer : buffers) {
+				rabin.reset();
+				rabin.pushBytes(buffer.duplicate());
+				assertEquals(expected, rabin.getFingerprintLong());
+			}
+			ByteBuffer buffer = buffers[2].duplicate();
+			rabin.pushBytes(buffer);
+			assertFalse(buffer.hasRemaining());
+		}
+	}
+
+	public static void testCombine() {
+		Random random = new Random(System.currentTimeMillis());
+		byte[] data = new byte[4096];
+		random.nextBytes(data);
+
+		for (int degree = 8; degree <= 54; degree++) {
+			Polynomial p = Polynomial.createRandom(degree);
+			final RabinFingerprintLong rabin = new RabinFingerprintLongSliced(p);
+			rabin.pushBytes(data);
+			final long expected = rabin.getFingerprintLong();
+
+			// stitch three segments of random size
+			int i0 = random.nextInt(data.length);
+			int i1 = i0 + random.nextInt(data.length - i0);
+			long combined = 0;
+			int start = 0;
+			for (int end : new int[] { i0, i1, data.length }) {
+				rabin.reset();
+				rabin.pushBytes(data, start, end - start);
+				combined = rabin.combine(combined, rabin.getFingerprintLong(), end - start);
+				start = end;
+			}
+			assertEquals(expected, combined);
+		}
+	}
+
+	public static void testParallel() throws IOException {
+		Random random = new Random(System.currentTimeMillis());
+		byte[] data = new byte[1 << 20];
+		random.nextBytes(data);
+		File file = File.createTempFile("rabin", ".bin");
+		file.deleteOnExit();
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(data);
+		} finally {
+			os.close();
+		}
+
+		Polynomial p = Polynomial.createIrreducible(53);
+		final RabinFingerprintLongSliced rabin = new RabinFingerprintLongSliced(p);
+		rabin.pushBytes(data);
+
+		final ForkJoinPool pool = new ForkJoinPool();
+		final FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			for (long segmentBytes : new long[] { 4093, 65536, 1 << 20, 1 << 21 }) {
+				long fingerprint = new RabinFingerprintLongParallel(rabin, segmentBytes).fingerprint(channel, pool);
+				assertEquals(rabin.getFingerprintLong(), fingerprint);
+			}
+		} finally {
+			channel.close();
+			pool.shutdown();
+		}
+	}
+
+	public static void testWindowedBulk() {
+		Random random = new Random(System.currentTimeMillis());
+		byte[] data = new byte[4096];
+		random.nextBytes(data);
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+		Polynomial p = Polynomial.createIrreducible(53);
+
+		for (int windowSize : new int[] { 1, 7, 48, 130 }) {
+			final RabinFingerprintLongWindowed rabin0 = new RabinFingerprintLongWindowed(p, windowSize);
+			final RabinFingerprintLongWindowed rabin1 = new RabinFingerprintLongWindowed(rabin0);
+			final RabinFingerprintLongWindowed rabin2 = new RabinFingerprintLongWindowed(rabin0);
+			final RabinFingerprintLong rabin3 = new RabinFingerprintLong(p);
+			final RabinFingerprintLongWindowed rabin4 = new RabinFingerprintLongWindowed(rabin0);
+			final long[] fingerprints = new long[2 * windowSize + 2];
+
+			// push pieces of random size, shorter and longer than the window
+			int start = 0;
+			while (start < data.length) {
+				int end = Math.min(data.length, start + random.nextInt(2 * windowSize + 2));
+				rabin4.pushBytes(data, start, end - start, fingerprints);
+				for (int i = start; i < end; i++) {
+					rabin0.pushByte(data[i]);
+					assertEquals(rabin0.getFingerprintLong(), fingerprints[i - start]);
+				}
+				rabin1.pushBytes(data, start, end - start);
+				rabin2.pushBytes(((ByteBuffer) direct.duplicate().limit(end).position(start)).slice());
+				assertEquals(rabin0.getFingerprintLong(), rabin1.getFingerprintLong());
+				assertEquals(rabin0.getFingerprintLong(), rabin2.getFingerprintLong());
+
+				rabin3.reset();
+				int windowStart = Math.max(0, end - windowSize);
+				rabin3.pushBytes(data, windowStart, end - windowStart);
+				assertEquals(rabin3.getFingerprintLong(), rabin0.getFingerprintLong());
+				start = end;
+			}
+		}
+	}
+
+	public static void testMultiWindowed() {
+		Random random = new Random(System.currentTimeMillis());
+		byte[] data = new byte[4096];
+		random.nextBytes(data);
+		Polynomial p = Polynomial.createIrreducible(53);
+		final int[] windowSizes = { 16, 1, 64, 48 };
+		final int n = windowSizes.length;
+
+		final RabinFingerprintLongWindowed[] singles = new RabinFingerprintLongWindowed[n];
+		for (int k = 0; k < n; k++) {
+			singles[k] = new RabinFingerprintLongWindowed(p, windowSizes[k]);
+		}
+		final RabinFingerprintLongMultiWindowed multi0 = new RabinFingerprintLongMultiWindowed(p, 16, 1, 64, 48);
+		final RabinFingerprintLongMultiWindowed multi1 = new RabinFingerprintLongMultiWindowed(multi0);
+		final RabinFingerprintLongMultiWindowed multi2 = new RabinFingerprintLongMultiWindowed(multi0);
+		final long[] fingerprints = new long[n * 200];
+
+		// push pieces of random size, shorter and longer than the largest window
+		int start = 0;
+		while (start < data.length) {
+			int end = Math.min(data.length, start + random.nextInt(200));
+			multi2.pushAllWindows(data, start, end - start, fingerprints);
+			for (int i = start; i < end; i++) {
+				multi0.pushByte(data[i]);
+				for (int k = 0; k < n; k++) {
+					singles[k].pushByte(data[i]);
+					assertEquals(singles[k].getFingerprintLong(), multi0.getFingerprintLong(k));
+					assertEquals(singles[k].getFingerprintLong(), fingerprints[(i - start) * n + k]);
+				}
+			}
+			multi1.pushBytes(data, start, end - start);
+			for (int k = 0; k < n; k++) {
+				assertEquals(singles[k].getFingerprintLong(), multi1.getFingerprintLong(k));
+			}
+			start = end;
+		}
+	}
+
+	public static void testLongFingerprints() {
+		Random random = new Random(System.currentTimeMillis());
+		byte[] data = new byte[1024];
+		random.nextBytes(data);
+		Polynomial p = Polynomial.createIrreducible(53);
+
+		List<LongFingerprint<Polynomial>> rabins = new ArrayList<LongFingerprint<Polynomial>>();
+		rabins.add(new RabinFingerprintLong(p));
+		rabins.add(new RabinFingerprintLongSliced(p));
+		rabins.add(new RabinFingerprintLongWindowed(p, 2 * data.length));
+		rabins.add(new RabinFingerprintLongMultiWindowed(p, 2 * data.length, 16));
+		final long[] fingerprints = new long[data.length];
+		final RabinFingerprintLong rabin0 = new RabinFingerprintLong(p);
+		for (LongFingerprint<Polynomial> rabin : rabins) {
+			rabin0.reset();
+			rabin.pushBytes(data, 0, data.length, fingerprints);
+			for (int i = 0; i < data.length; i++) {
+				rabin0.pushByte(data[i]);
+				assertEquals(rabin0.getFingerprintLong(), fingerprints[i]);
+			}
+			assertEquals(rabin0.getFingerprintLong(), rabin.getFingerprintLong());
+			assertEquals(rabin.getFingerprint().toHexString(), rabin.toString());
+		}
+
+		for (int degree : new int[] { 64, 100, 128 }) {
+			RabinFingerprintDoubleLong wide = new RabinFingerprintDoubleLong(Polynomial.createRandom(degree));
+			for (int length : new int[] { 0, 1, 8, 1024 }) {
+				wide.reset();
+				wide.pushBytes(data, 0, length);
+				assertEquals(wide.getFingerprint().toHexString(), wide.toString());
+			}
+		}
+	}
+
+	public static void testWidePolynomialsAndLongs() {
+		Random random = new Random(System.currentTimeMillis());
+		byte[] data = new byte[256];
+		random.nextBytes(data);
+		int windowSize = 16;
+
+		for (int degree : new int[] { 8, 53, 64, 65, 100, 127, 128, 130, 200, 256 }) {
+			Polynomial p = Polynomial.createRandom(degree);
+			List<Fingerprint<Polynomial>> plain = new ArrayList<Fingerprint<Polynomial>>();
+			List<Fingerprint<Polynomial>> windowed = new ArrayList<Fingerprint<Polynomial>>();
+			plain.add(new RabinFingerprintPolynomial(p));
+			windowed.add(new RabinFingerprintPolynomial(p, windowSize));
+			plain.add(new RabinFingerprintLongArray(p));
+			windowed.add(new RabinFingerprintLongArrayWindowed(p, windowSize));
+			if (degree >= 64 && degree <= 128) {
+				plain.add(new RabinFingerprintDoubleLong(p));
+				windowed.add(new RabinFingerprintDoubleLongWindowed(p, windowSize));
+			}
+
+			for (List<Fingerprint<Polynomial>> rabins : Arrays.asList(plain, windowed)) {
+				for (Fingerprint<Polynomial> rabin : rabins) {
+					rabin.pushBytes(data);
+				}
+				Polynomial expected = rabins.get(0).getFingerprint();
+				for (Fingerprint<Polynomial> rabin : rabins) {
+					assertEquals(0, expected.compareTo(rabin.getFingerprint()));
+				}
+			}
+		}
+	}
+
+	public void testTableCache() {
+		Polynomial p = Polynomial.createIrreducible(53);
+		RabinFingerprintLongWindowed a = new RabinFingerprintLongWindowed(p, 48);
+		RabinFingerprintLongWindowed b = new RabinFingerprintLongWindowed(p, 48);
+		RabinFingerprintLongWindowed c = new RabinFingerprintLongWindowed(p, 16);
+		assertSame(a.pushTable, b.pushTable);
+		assertSame(a.popTable, b.popTable);
+		assertSame(a.pushTable, c.pushTable);
+		assertNotSame(a.popTable, c.popTable);
+
+		// evicted tables are rebuilt with the same contents
+		for (int i = 0; i <= TableCache.MAX_ENTRIES; i++) {
+			new RabinFingerprintLongWindowed(p, 100 + i);
+		}
+		assertTrue(TableCache.size() <= TableCache.MAX_ENTRIES);
+		RabinFingerprintLongWindowed d = new RabinFingerprintLongWindowed(p, 16);
+		assertNotSame(c.popTable, d.popTable);
+		assertTrue(Arrays.equals(c.popTable, d.popTable));
+	}
 }
@@ -0,0 +1,60 @@
+package org.rabinfingerprint.fingerprint;
+
+import java.util.Random;
+
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * Rough throughput comparison of the per-byte and sliced bulk push loops.
+ *
+ * Run as a plain java application; the numbers are only meaningful relative to
+ * each other on the same machine.
+ */
+public class RabinFingerprintThroughput {
+	private static final int DATA_BYTES = 64 * (1 << 20); // 64 MB
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		byte[] data = new byte[DATA_BYTES];
+		new Random(42).nextBytes(data);
+		Polynomial p = Polynomial.createIrreducible(53);
+
+		RabinFingerprintLong rabin = new RabinFingerprintLong(p);
+		RabinFingerprintLong sliced = new RabinFingerprintLongSliced(p);
+		for (int i = 0; i < ROUNDS; i++) {
+			double mbs0 = measure(rabin, data);
+			double mbs1 = measure(sliced, data);
+			System.out.println(String.format("per-byte %8.1f MB/s   sliced %8.1f MB/s   (%.2fx)", mbs0, mbs1, mbs1 / mbs0));
+		}
+
+		Polynomial wide = Polynomial.createIrreducible(127);
+		AbstractFingerprint rabin128 = new RabinFingerprintDoubleLong(wide);
+		AbstractFingerprint rabin256 = new RabinFingerprintLongArray(Polynomial.createIrreducible(255));
+		for (int i = 0; i < ROUNDS; i++) {
+			double mbs0 = measure(rabin128, data);
+			double mbs1 = measure(rabin256, data);
+			System.out.println(String.format("128-bit  %8.1f MB/s   256-bit %8.1f MB/s", mbs0, mbs1));
+		}
+
+		AbstractFingerprint[] singles = { new RabinFingerprintLongWindowed(p, 16), new RabinFingerprintLongWindowed(p, 48),
+				new RabinFingerprintLongWindowed(p, 64) };
+		AbstractFingerprint multi = new RabinFingerprintLongMultiWindowed(p, 16, 48, 64);
+		for (int i = 0; i < ROUNDS; i++) {
+			double s = 0;
+			for (AbstractFingerprint single : singles) {
+				s += 1 / measure(single, data);
+			}
+			double mbs0 = 1 / s;
+			double mbs1 = measure(multi, data);
+			System.out.println(String.format("3 windows %7.1f MB/s   multi %8.1f MB/s   (%.2fx)", mbs0, mbs1, mbs1 / mbs0));
+		}
+	}
+
+	private static double measure(AbstractFingerprint rabin, byte[] data) {
+		rabin.reset();
+		long t0 = System.nanoTime();
+		rabin.pushBytes(data, 0, data.length);
+		long t1 = System.nanoTime();
+		return (data.length / (double) (1 << 20)) / ((t1 - t0) / 1e9);
+	}
+}
@@ -1,5 +1,10 @@
 package org.rabinfingerprint.polynomial;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 import org.rabinfingerprint.polynomial.Polynomial.Reducibility;
@@ -21,6 +26,87 @@ public class PolynomialTest extends TestCase {
 		assertEquals(0x1, pabm.toBigInteger().longValue());
 	}
 
+	public void testBitPolynomialArithmetic() {
+		BitPolynomial pa = BitPolynomial.createFromLong(0x53);
+		BitPolynomial pb = BitPolynomial.createFromLong(0xCA);
+		BitPolynomial pm = BitPolynomial.createFromLong(0x11B);
+		BitPolynomial px = pa.multiply(pb);
+		assertEquals(0x3F7E, px.longValue());
+		BitPolynomial pabm = px.mod(pm);
+		assertEquals(0x1, pabm.longValue());
+	}
+
+	/**
+	 * Checks that BitPolynomial agrees with Polynomial on random operands
+	 * spanning several words.
+	 */
+	public void testBitPolynomialMatchesPolynomial() {
+		Random random = new Random(System.currentTimeMillis());
+		for (int i = 0; i < 50; i++) {
+			Polynomial a = Polynomial.createRandom(random.nextInt(300));
+			Polynomial b = Polynomial.createRandom(1 + random.nextInt(200));
+			BitPolynomial ba = BitPolynomial.createFromPolynomial(a);
+			BitPolynomial bb = BitPolynomial.createFromPolynomial(b);
+			int shift = random.nextInt(130);
+
+			assertEquals(a.xor(b).toBigInteger(), ba.xor(bb).toBigInteger());
+			assertEquals(a.and(b).toBigInteger(), ba.and(bb).toBigInteger());
+			assertEquals(a.or(b).toBigInteger(), ba.or(bb).toBigInteger());
+			assertEquals(a.multiply(b).toBigInteger(), ba.multiply(bb).toBigInteger());
+			assertEquals(a.multiply(a).toBigInteger(), ba.square().toBigInteger());
+			assertEquals(a.mod(b).toBigInteger(), ba.mod(bb).toBigInteger());
+			assertEquals(a.gcd(b).toBigInteger(), ba.gcd(bb).toBigInteger());
+			assertEquals(a.shiftLeft(BigInteger.valueOf(shift)).toBigInteger(), ba.shiftLeft(shift).toBigInteger());
+			assertEquals(a.shiftRight(BigInteger.valueOf(shift)).toBigInteger(), ba.shiftRight(shift).toBigInteger());
+			assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(ba.compareTo(bb)));
+			assertEquals(0, a.compareTo(ba.toPolynomial()));
+			assertEquals(a.toPolynomialString(), ba.toPolynomialString());
+		}
+	}
+
+	/**
+	 * Checks the word-level Ben-Or test against the original one.
+	 */
+	public void testBitPolynomialReducibility() {
+		List<Polynomial> polynomials = new ArrayList<Polynomial>();
+		for (int i = 0; i < 200; i++) {
+			polynomials.add(Polynomial.createRandom(15));
+		}
+		// the smallest irreducible polynomials, x + 1 and x^2 + x + 1
+		polynomials.add(Polynomial.createFromLong(3));
+		polynomials.add(Polynomial.createFromLong(7));
+		for (Polynomial f : polynomials) {
+			BitPolynomial g = BitPolynomial.createFromPolynomial(f);
+			Reducibility expected = f.getReducibilityBenOr();
+			assertEquals(expected, g.getReducibility());
+			assertEquals(expected, g.getReducibilityRabin());
+			assertEquals(expected, Polynomials.getReducibility(g.longValue()));
+		}
+	}
+
+	/**
+	 * Checks that the Rabin test agrees with Ben-Or on composite and prime
+	 * degrees, and that seeded generation is reproducible.
+	 */
+	public void testIrreducibleGeneration() {
+		Random random = new Random(System.currentTimeMillis());
+		for (int degree : new int[] { 12, 31, 53, 64, 127 }) {
+			for (int i = 0; i < 20; i++) {
+				BitPolynomial f = BitPolynomial.createRandom(degree, random);
+				assertEquals(f.getReducibility(), f.getReducibilityRabin());
+			}
+			BitPolynomial p = BitPolynomial.createIrreducible(degree, random);
+			assertEquals(Reducibility.IRREDUCIBLE, p.getReducibilityRabin());
+			assertEquals(degree, p.degree());
+		}
+
+		long seed = random.nextLong();
+		Polynomial p0 = Polynomial.createIrreducible(53, new Random(seed));
+		Polynomial p1 = Polynomial.createIrreducible(53, new Random(seed));
+		assertEquals(0, p0.compareTo(p1));
+		assertFalse(p0.isReducible());
+	}
+
 	/**
 	 * According to Rabin, the expected number of tests required to find an
 	 * irreducible polynomial from a randomly chosen monic polynomial of degree
@@ -0,0 +1,259 @@
+package org.rabinfingerprint.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * A bottom-k sketch of a set of fingerprints: the k smallest distinct values
+ * of a hash of the fingerprints. Two sketches estimate the Jaccard similarity
+ * and the containment of the sets they were built from in O(k) time, however
+ * large the sets were.
+ *
+ * Every element of a set that hashes to at most the threshold of both
+ * sketches, the smaller of their k-th values, is in its sketch. The elements
+ * below the threshold are therefore a uniform sample of both sets, and the
+ * estimates are the exact similarities of the samples. While fewer than k
+ * distinct values were added, the sketch holds the whole set and the estimates
+ * are exact.
+ *
+ * Fingerprints are mixed with the MurmurHash3 finalizer before ranking, a
+ * bijection, so sets ranked by their raw values (like a handprint's hand) do
+ * not bias the sample. Not thread safe.
+ */
+public class BottomKSketch {
+	private final int k;
+
+	// a max-heap of the k smallest hashes, with the sign bit flipped so that
+	// signed order is unsigned order
+	private final long[] heap;
+	private int size = 0;
+	private long[] sorted;
+
+	public BottomKSketch(int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("Sketch size must be positive");
+		}
+		this.k = k;
+		this.heap = new long[k];
+	}
+
+	/**
+	 * Creates a sketch from the values of {@link #getValues()} of another one
+	 * of the same size.
+	 */
+	public BottomKSketch(int k, long[] values) {
+		this(k);
+		if (values.length > k) {
+			throw new IllegalArgumentException("More values than the sketch size");
+		}
+		for (long value : values) {
+			offer(value);
+		}
+	}
+
+	private static long hash(long fingerprint) {
+		long h = fingerprint;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h ^ Long.MIN_VALUE;
+	}
+
+	/**
+	 * Adds the fingerprint to the set sketched.
+	 */
+	public void add(long fingerprint) {
+		offer(hash(fingerprint));
+	}
+
+	private void offer(long value) {
+		if (size == k && value >= heap[0]) {
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			if (heap[i] == value) return;
+		}
+		sorted = null;
+
+		int i;
+		if (size == k) {
+			// replace the largest value and sift it down
+			i = 0;
+			while (true) {
+				final int left = 2 * i + 1;
+				if (left >= size) break;
+				final int right = left + 1;
+				final int child = (right < size && heap[right] > heap[left]) ? right : left;
+				if (value >= heap[child]) break;
+				heap[i] = heap[child];
+				i = child;
+			}
+		} else {
+			// sift up from the end
+			i = size++;
+			while (i > 0) {
+				final int parent = (i - 1) >>> 1;
+				if (heap[parent] >= value) break;
+				heap[i] = heap[parent];
+				i = parent;
+			}
+		}
+		heap[i] = value;
+	}
+
+	/**
+	 * Returns the sketch size k.
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Returns the number of values held, which is k unless fewer distinct
+	 * fingerprints were added.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the values held in ascending order. These are hashes, not the
+	 * fingerprints added.
+	 */
+	public long[] getValues() {
+		if (sorted == null) {
+			sorted = Arrays.copyOf(heap, size);
+			Arrays.sort(sorted);
+		}
+		return sorted.clone();
+	}
+
+	private long[] values() {
+		if (sorted == null) {
+			getValues();
+		}
+		return sorted;
+	}
+
+	/**
+	 * Returns the largest value every element of the set hashing to at most
+	 * it is known to be in the sketch for.
+	 */
+	private long threshold() {
+		return (size < k) ? Long.MAX_VALUE : values()[size - 1];
+	}
+
+	/**
+	 * Estimates the number of distinct fingerprints added.
+	 */
+	public double estimateCardinality() {
+		if (size < k) {
+			return size;
+		}
+		// the k-th smallest of n uniform values in [0, 1) is about k / n
+		final double kth = ((values()[k - 1] ^ Long.MIN_VALUE) >>> 11) * 0x1.0p-53;
+		return (k - 1) / Math.max(kth, 0x1.0p-53);
+	}
+
+	/**
+	 * Estimates |A & B| / |A | B|, where A is this sketch's set and B the
+	 * other one's. Two empty sets are identical.
+	 */
+	public double estimateJaccard(BottomKSketch other) {
+		final long[] counts = countBelowThreshold(other);
+		final long union = counts[0] + counts[1] - counts[2];
+		return (union == 0) ? 1.0 : (double) counts[2] / union;
+	}
+
+	/**
+	 * Estimates |A & B| / |A|, the fraction of this sketch's set that is
+	 * contained in the other one's. An empty set is contained in any set.
+	 */
+	public double estimateContainment(BottomKSketch other) {
+		final long[] counts = countBelowThreshold(other);
+		return (counts[0] == 0) ? 1.0 : (double) counts[2] / counts[0];
+	}
+
+	/**
+	 * Returns the number of values of this sketch, of the other one and of
+	 * both that are at most the threshold of both.
+	 */
+	private long[] countBelowThreshold(BottomKSketch other) {
+		final long threshold = Math.min(threshold(), other.threshold());
+		final long[] a = values();
+		final long[] b = other.values();
+		long countA = 0, countB = 0, common = 0;
+		int i = 0, j = 0;
+		while (i < a.length && a[i] <= threshold && j < b.length && b[j] <= threshold) {
+			if (a[i] < b[j]) {
+				i++;
+				countA++;
+			} else if (a[i] > b[j]) {
+				j++;
+				countB++;
+			} else {
+				i++;
+				j++;
+				countA++;
+				countB++;
+				common++;
+			}
+		}
+		while (i < a.length && a[i] <= threshold) {
+			i++;
+			countA++;
+		}
+		while (j < b.length && b[j] <= threshold) {
+			j++;
+			countB++;
+		}
+		return new long[] { countA, countB, common };
+	}
+
+	/**
+	 * Returns a MinHash signature of the set: the smallest hash falling in
+	 * each of the given number of bins, which two sets agree on with a
+	 * probability of about their Jaccard similarity. This is exact for every
+	 * bin that has a value in the sketch, which with k several times the
+	 * number of bins is almost all of them. An empty bin takes its value from
+	 * the next non-empty one, mixed with the distance to it.
+	 */
+	public long[] getSignature(int bins) {
+		if (bins < 1) {
+			throw new IllegalArgumentException("Signature size must be positive");
+		}
+		final long[] signature = new long[bins];
+		final boolean[] filled = new boolean[bins];
+		for (long value : values()) {
+			final int bin = (int) ((value & Integer.MAX_VALUE) % bins);
+			if (!filled[bin]) {
+				// values are ascending, so the first one is the smallest
+				signature[bin] = value;
+				filled[bin] = true;
+			}
+		}
+		if (size == 0) {
+			Arrays.fill(signature, Long.MAX_VALUE);
+			return signature;
+		}
+		for (int bin = 0; bin < bins; bin++) {
+			if (!filled[bin]) {
+				int distance = 1;
+				while (!filled[(bin + distance) % bins]) {
+					distance++;
+				}
+				signature[bin] = hash(signature[(bin + distance) % bins] + distance);
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * Object override for printing
+	 */
+	@Override
+	public String toString() {
+		return "BottomKSketch(k=" + k + ", size=" + size + ")";
+	}
+}
@@ -0,0 +1,214 @@
+package org.rabinfingerprint.datastructures;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+
+/**
+ * A read-only, memory-mapped index from chunk fingerprints to the files and
+ * offsets they were found at, as written by {@link FingerprintIndexWriter}.
+ *
+ * Opening an index only maps it, so it is ready at once whatever its size,
+ * and lookups cost page cache accesses rather than heap. The file consists of
+ *
+ * <pre>
+ *     header:   magic, version (ints), postings (long), files (int), unused (int)
+ *     postings: fingerprint (long), start (long), file id (int), length (int)
+ *     files:    files + 1 offsets (longs), then the UTF-8 paths
+ * </pre>
+ *
+ * in big-endian order, with the postings sorted by fingerprint, then file id,
+ * then start. As Rabin fingerprints are spread evenly over the longs, a
+ * lookup interpolates between the fingerprints at the ends of the range still
+ * searched, which takes about log log n probes, and falls back to bisection
+ * if that does not converge.
+ */
+public class FingerprintIndex implements Closeable {
+	static final int MAGIC = 0x52465049; // RFPI
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 24;
+	static final int POSTING_BYTES = 24;
+
+	/** postings per mapping, so that no posting straddles two */
+	private static final int POSTINGS_PER_MAP = (1 << 30) / POSTING_BYTES;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Receives the postings of a fingerprint, in order of file id and start.
+	 */
+	public static interface PostingVisitor {
+		public void visit(int fileId, long start, long end);
+	}
+
+	private final RandomAccessFile file;
+	private final long postings;
+	private final int fileCount;
+	private final ByteBuffer[] maps;
+	private final ByteBuffer fileTable;
+
+	public FingerprintIndex(File indexFile) throws IOException {
+		this.file = new RandomAccessFile(indexFile, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("Not a fingerprint index: " + indexFile);
+			}
+			postings = header.getLong(8);
+			fileCount = header.getInt(16);
+
+			maps = new ByteBuffer[(int) ((postings + POSTINGS_PER_MAP - 1) / POSTINGS_PER_MAP)];
+			for (int i = 0; i < maps.length; i++) {
+				final long first = (long) i * POSTINGS_PER_MAP;
+				final long count = Math.min(POSTINGS_PER_MAP, postings - first);
+				maps[i] = channel.map(MapMode.READ_ONLY, HEADER_BYTES + first * POSTING_BYTES, count
+						* POSTING_BYTES);
+			}
+			final long tableStart = HEADER_BYTES + postings * POSTING_BYTES;
+			fileTable = channel.map(MapMode.READ_ONLY, tableStart, channel.size() - tableStart);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of postings.
+	 */
+	public long size() {
+		return postings;
+	}
+
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * Returns the path the file id was registered with.
+	 */
+	public String getFile(int fileId) {
+		if (fileId < 0 || fileId >= fileCount) {
+			throw new IndexOutOfBoundsException("No file " + fileId);
+		}
+		final int offset = (int) fileTable.getLong(8 * fileId);
+		final int length = (int) (fileTable.getLong(8 * (fileId + 1)) - offset);
+		final byte[] bytes = new byte[length];
+		final ByteBuffer paths = fileTable.duplicate();
+		paths.position(8 * (fileCount + 1) + offset);
+		paths.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private ByteBuffer map(long posting) {
+		return maps[(int) (posting / POSTINGS_PER_MAP)];
+	}
+
+	private int offset(long posting) {
+		return (int) (posting % POSTINGS_PER_MAP) * POSTING_BYTES;
+	}
+
+	public long getFingerprint(long posting) {
+		return map(posting).getLong(offset(posting));
+	}
+
+	public long getStart(long posting) {
+		return map(posting).getLong(offset(posting) + 8);
+	}
+
+	public long getEnd(long posting) {
+		return getStart(posting) + map(posting).getInt(offset(posting) + 20);
+	}
+
+	public int getFileId(long posting) {
+		return map(posting).getInt(offset(posting) + 16);
+	}
+
+	/**
+	 * Returns the index of the first posting whose fingerprint is at least the
+	 * given one, or size() if there is none.
+	 */
+	public long lowerBound(long fingerprint) {
+		// postings before lo are smaller, those from hi on are not
+		long lo = 0;
+		long hi = postings;
+		int interpolations = 2 * (64 - Long.numberOfLeadingZeros(postings));
+		while (hi - lo > 8) {
+			long probe;
+			if (interpolations-- > 0) {
+				final long first = getFingerprint(lo);
+				final long last = getFingerprint(hi - 1);
+				if (fingerprint <= first) return lo;
+				if (fingerprint > last) return hi;
+				final double fraction = ((double) fingerprint - (double) first) / ((double) last - (double) first);
+				probe = lo + (long) (fraction * (hi - 1 - lo));
+				probe = Math.max(lo, Math.min(hi - 1, probe));
+			} else {
+				probe = (lo + hi) >>> 1;
+			}
+			if (getFingerprint(probe) < fingerprint) {
+				lo = probe + 1;
+			} else {
+				hi = probe;
+			}
+		}
+		while (lo < hi && getFingerprint(lo) < fingerprint) {
+			lo++;
+		}
+		return lo;
+	}
+
+	public boolean contains(long fingerprint) {
+		final long i = lowerBound(fingerprint);
+		return i < postings && getFingerprint(i) == fingerprint;
+	}
+
+	/**
+	 * Hands the postings of the fingerprint to the visitor and returns how
+	 * many there were.
+	 */
+	public int query(long fingerprint, PostingVisitor visitor) {
+		int count = 0;
+		for (long i = lowerBound(fingerprint); i < postings && getFingerprint(i) == fingerprint; i++) {
+			visitor.visit(getFileId(i), getStart(i), getEnd(i));
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the ids of the files containing a chunk with the fingerprint, in
+	 * ascending order.
+	 */
+	public int[] getFileIds(long fingerprint) {
+		final long first = lowerBound(fingerprint);
+		long last = first;
+		while (last < postings && getFingerprint(last) == fingerprint) {
+			last++;
+		}
+		int[] ids = new int[(int) Math.min(last - first, Integer.MAX_VALUE)];
+		int count = 0;
+		for (long i = first; i < last; i++) {
+			final int id = getFileId(i);
+			if (count == 0 || ids[count - 1] != id) {
+				ids[count++] = id;
+			}
+		}
+		if (count < ids.length) {
+			final int[] distinct = new int[count];
+			System.arraycopy(ids, 0, distinct, 0, count);
+			ids = distinct;
+		}
+		return ids;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
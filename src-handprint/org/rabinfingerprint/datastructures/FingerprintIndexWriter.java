@@ -0,0 +1,357 @@
+package org.rabinfingerprint.datastructures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds a {@link FingerprintIndex} file from postings added in any order,
+ * with an external sort-merge so that the number of postings is limited by
+ * disk space rather than memory.
+ *
+ * Postings are collected in primitive arrays of runPostings entries. A full
+ * run is sorted in place and spilled to a temporary file, and closing the
+ * writer merges all runs into the index with a heap of run readers, streaming
+ * through buffered files. Memory use is about 24 bytes times runPostings,
+ * plus a buffer per run while merging.
+ *
+ * The index is written next to the index file and only renamed into place
+ * once complete, so that the index file is never left partly written. A
+ * writer whose postings are incomplete is aborted instead of closed:
+ *
+ * <pre>
+ * FingerprintIndexWriter writer = new FingerprintIndexWriter(indexFile);
+ * try {
+ *     int file = writer.addFile(path);
+ *     writer.add(fingerprint, file, start, end);
+ *     ...
+ * } catch (IOException e) {
+ *     writer.abort();
+ *     throw e;
+ * }
+ * writer.close();
+ * </pre>
+ */
+public class FingerprintIndexWriter implements Closeable {
+	/** the default number of postings sorted in memory at a time */
+	public static final int DEFAULT_RUN_POSTINGS = 1 << 22;
+
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private final File indexFile;
+	private final File tempDir;
+	private final List<String> files = new ArrayList<String>();
+	private final List<File> runs = new ArrayList<File>();
+	private boolean closed = false;
+
+	// the current run
+	private final long[] fingerprints;
+	private final long[] starts;
+	private final int[] fileIds;
+	private final int[] lengths;
+	private int count = 0;
+
+	public FingerprintIndexWriter(File indexFile) {
+		this(indexFile, null, DEFAULT_RUN_POSTINGS);
+	}
+
+	/**
+	 * Spills runs of runPostings postings to temporary files in tempDir, or
+	 * the default temporary directory if it is null.
+	 */
+	public FingerprintIndexWriter(File indexFile, File tempDir, int runPostings) {
+		if (runPostings < 1) {
+			throw new IllegalArgumentException("Run size must be positive");
+		}
+		this.indexFile = indexFile;
+		this.tempDir = tempDir;
+		this.fingerprints = new long[runPostings];
+		this.starts = new long[runPostings];
+		this.fileIds = new int[runPostings];
+		this.lengths = new int[runPostings];
+	}
+
+	/**
+	 * Registers a file and returns its id, which postings refer to it by.
+	 */
+	public int addFile(String path) {
+		files.add(path);
+		return files.size() - 1;
+	}
+
+	/**
+	 * Adds a chunk of the file with the given fingerprint.
+	 */
+	public void add(long fingerprint, int fileId, long start, long end) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Writer is closed");
+		}
+		if (fileId < 0 || fileId >= files.size()) {
+			throw new IllegalArgumentException("Unknown file id " + fileId);
+		}
+		if (start > end || end - start > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid chunk [" + start + ", " + end + ")");
+		}
+		if (count == fingerprints.length) {
+			spill();
+		}
+		fingerprints[count] = fingerprint;
+		starts[count] = start;
+		fileIds[count] = fileId;
+		lengths[count] = (int) (end - start);
+		count++;
+	}
+
+	/**
+	 * Sorts the current run and writes it to a temporary file.
+	 */
+	private void spill() throws IOException {
+		sort(0, count);
+		final File run = File.createTempFile("fingerprints", ".run", tempDir);
+		run.deleteOnExit();
+		runs.add(run);
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run),
+				BUFFER_BYTES));
+		try {
+			for (int i = 0; i < count; i++) {
+				writePosting(out, fingerprints[i], fileIds[i], starts[i], lengths[i]);
+			}
+		} finally {
+			out.close();
+		}
+		count = 0;
+	}
+
+	private static void writePosting(DataOutputStream out, long fingerprint, int fileId, long start, int length)
+			throws IOException {
+		out.writeLong(fingerprint);
+		out.writeLong(start);
+		out.writeInt(fileId);
+		out.writeInt(length);
+	}
+
+	/**
+	 * Deletes the runs without writing the index, leaving the index file as it
+	 * was. Does nothing if the writer is already closed.
+	 */
+	public void abort() {
+		if (closed) return;
+		closed = true;
+		deleteRuns();
+	}
+
+	private void deleteRuns() {
+		for (File run : runs) {
+			run.delete();
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Merges the runs into the index file and deletes them.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+
+		final File temp = new File(indexFile.getPath() + ".tmp");
+		boolean written = false;
+		try {
+			write(temp);
+			written = true;
+		} finally {
+			deleteRuns();
+			if (!written) {
+				temp.delete();
+			}
+		}
+		Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void write(File file) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), BUFFER_BYTES));
+		long postings = 0;
+		try {
+			// the header is rewritten once the counts are known
+			out.write(new byte[FingerprintIndex.HEADER_BYTES]);
+			if (runs.isEmpty()) {
+				sort(0, count);
+				for (int i = 0; i < count; i++) {
+					writePosting(out, fingerprints[i], fileIds[i], starts[i], lengths[i]);
+				}
+				postings = count;
+			} else {
+				if (count > 0) spill();
+				postings = merge(out);
+			}
+
+			// the file table: an offset per path, then the paths
+			long offset = 0;
+			final byte[][] paths = new byte[files.size()][];
+			for (int i = 0; i < paths.length; i++) {
+				paths[i] = files.get(i).getBytes("UTF-8");
+				out.writeLong(offset);
+				offset += paths[i].length;
+			}
+			out.writeLong(offset);
+			for (byte[] path : paths) {
+				out.write(path);
+			}
+		} finally {
+			out.close();
+		}
+
+		final RandomAccessFile header = new RandomAccessFile(file, "rw");
+		try {
+			header.writeInt(FingerprintIndex.MAGIC);
+			header.writeInt(FingerprintIndex.VERSION);
+			header.writeLong(postings);
+			header.writeInt(files.size());
+			header.writeInt(0);
+		} finally {
+			header.close();
+		}
+	}
+
+	private long merge(DataOutputStream out) throws IOException {
+		final PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>(runs.size());
+		try {
+			for (File run : runs) {
+				RunReader reader = new RunReader(run);
+				if (reader.next()) {
+					heap.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			long postings = 0;
+			while (!heap.isEmpty()) {
+				final RunReader reader = heap.poll();
+				writePosting(out, reader.fingerprint, reader.fileId, reader.start, reader.length);
+				postings++;
+				if (reader.next()) {
+					heap.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			return postings;
+		} finally {
+			for (RunReader reader : heap) {
+				reader.close();
+			}
+		}
+	}
+
+	private static final class RunReader implements Comparable<RunReader> {
+		private final DataInputStream in;
+		private long fingerprint;
+		private long start;
+		private int fileId;
+		private int length;
+
+		private RunReader(File run) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_BYTES));
+		}
+
+		private boolean next() throws IOException {
+			try {
+				fingerprint = in.readLong();
+			} catch (EOFException e) {
+				return false;
+			}
+			start = in.readLong();
+			fileId = in.readInt();
+			length = in.readInt();
+			return true;
+		}
+
+		private void close() throws IOException {
+			in.close();
+		}
+
+		@Override
+		public int compareTo(RunReader o) {
+			return compare(fingerprint, fileId, start, o.fingerprint, o.fileId, o.start);
+		}
+	}
+
+	/**
+	 * Orders postings by fingerprint, then file, then offset.
+	 */
+	static int compare(long fingerprint1, int fileId1, long start1, long fingerprint2, int fileId2, long start2) {
+		if (fingerprint1 != fingerprint2) return (fingerprint1 < fingerprint2) ? -1 : 1;
+		if (fileId1 != fileId2) return (fileId1 < fileId2) ? -1 : 1;
+		if (start1 != start2) return (start1 < start2) ? -1 : 1;
+		return 0;
+	}
+
+	private int compare(int i, int j) {
+		return compare(fingerprints[i], fileIds[i], starts[i], fingerprints[j], fileIds[j], starts[j]);
+	}
+
+	/**
+	 * Sorts the postings from index lo to hi - 1 in place, by quicksort on
+	 * the median of three, finishing short ranges by insertion sort.
+	 */
+	private void sort(int lo, int hi) {
+		while (hi - lo > 16) {
+			final int mid = (lo + hi) >>> 1;
+			if (compare(mid, lo) < 0) swap(mid, lo);
+			if (compare(hi - 1, lo) < 0) swap(hi - 1, lo);
+			if (compare(hi - 1, mid) < 0) swap(hi - 1, mid);
+
+			// partition around the median, kept at hi - 1
+			swap(mid, hi - 1);
+			int store = lo;
+			for (int i = lo; i < hi - 1; i++) {
+				if (compare(i, hi - 1) < 0) swap(i, store++);
+			}
+			swap(store, hi - 1);
+
+			// recurse into the smaller side
+			if (store - lo < hi - store) {
+				sort(lo, store);
+				lo = store + 1;
+			} else {
+				sort(store + 1, hi);
+				hi = store;
+			}
+		}
+		for (int i = lo + 1; i < hi; i++) {
+			for (int j = i; j > lo && compare(j, j - 1) < 0; j--) {
+				swap(j, j - 1);
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		final long fingerprint = fingerprints[i];
+		fingerprints[i] = fingerprints[j];
+		fingerprints[j] = fingerprint;
+		final long start = starts[i];
+		starts[i] = starts[j];
+		starts[j] = start;
+		final int fileId = fileIds[i];
+		fileIds[i] = fileIds[j];
+		fileIds[j] = fileId;
+		final int length = lengths[i];
+		lengths[i] = lengths[j];
+		lengths[j] = length;
+	}
+}
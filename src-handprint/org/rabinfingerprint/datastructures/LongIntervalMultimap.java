@@ -0,0 +1,238 @@
+package org.rabinfingerprint.datastructures;
+
+import java.util.Arrays;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * A multimap from long keys to [start, end) intervals, such as chunk
+ * fingerprints to the chunks they were found at, kept entirely in primitive
+ * arrays.
+ *
+ * Entries are stored in insertion order in parallel arrays, chained per key.
+ * The distinct keys live in an open-addressing hash table with linear probing
+ * whose slots hold the last entry of each key, whose next link in turn is the
+ * complement of the key's first entry. An entry costs 28 bytes and a hash slot
+ * 4, with the table kept at most 3/4 full, against well over 100 bytes per
+ * entry for a Multimap<Long, Interval> with its boxed keys and offsets.
+ *
+ * Entries are addressed by their index, 0 to size() - 1 in insertion order:
+ *
+ * <pre>
+ * for (int i = map.first(key); i != -1; i = map.next(i)) {
+ * 	map.getStart(i) ...
+ * }
+ * </pre>
+ *
+ * Not thread safe.
+ */
+public class LongIntervalMultimap {
+	private static final int NONE = -1;
+
+	// the hash table over the distinct keys, holding the last entry of each
+	private int[] slots;
+	private int shift;
+	private int keyCount = 0;
+
+	// the entries in insertion order. the last entry of a key links to the
+	// complement of the first, which is negative
+	private long[] keys;
+	private long[] starts;
+	private long[] ends;
+	private int[] next;
+	private int size = 0;
+
+	public LongIntervalMultimap() {
+		this(16);
+	}
+
+	/**
+	 * Creates a map with room for the given number of entries before it has
+	 * to grow.
+	 */
+	public LongIntervalMultimap(int expectedSize) {
+		final int capacity = Math.max(16, expectedSize);
+		keys = new long[capacity];
+		starts = new long[capacity];
+		ends = new long[capacity];
+		next = new int[capacity];
+		allocateSlots(Integer.highestOneBit(Math.max(16, capacity + capacity / 3)) * 2);
+	}
+
+	private void allocateSlots(int capacity) {
+		slots = new int[capacity];
+		Arrays.fill(slots, NONE);
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	/**
+	 * Returns the slot of the key, or the empty slot it would go in.
+	 */
+	private int slot(long key) {
+		final int mask = slots.length - 1;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+		while (slots[slot] != NONE && keys[slots[slot]] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	public void put(long key, long start, long end) {
+		if (start > end) {
+			throw new IllegalArgumentException("Interval indeces out of order");
+		}
+		if (size == keys.length) {
+			final int capacity = 2 * size;
+			keys = Arrays.copyOf(keys, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+		final int entry = size++;
+		keys[entry] = key;
+		starts[entry] = start;
+		ends[entry] = end;
+
+		final int slot = slot(key);
+		final int last = slots[slot];
+		slots[slot] = entry;
+		if (last == NONE) {
+			next[entry] = ~entry;
+			// keep the table at most 3/4 full
+			if (++keyCount > slots.length - slots.length / 4) {
+				rehash();
+			}
+		} else {
+			next[entry] = next[last];
+			next[last] = entry;
+		}
+	}
+
+	private void rehash() {
+		final int[] old = slots;
+		allocateSlots(2 * old.length);
+		for (int i = 0; i < old.length; i++) {
+			if (old[i] != NONE) {
+				slots[slot(keys[old[i]])] = old[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of distinct keys.
+	 */
+	public int keyCount() {
+		return keyCount;
+	}
+
+	public boolean containsKey(long key) {
+		return slots[slot(key)] != NONE;
+	}
+
+	/**
+	 * Returns the number of entries of the key.
+	 */
+	public int count(long key) {
+		int count = 0;
+		for (int i = first(key); i != NONE; i = next(i)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the index of the first entry of the key, or -1 if there is none.
+	 */
+	public int first(long key) {
+		final int last = slots[slot(key)];
+		return (last == NONE) ? NONE : ~next[last];
+	}
+
+	/**
+	 * Returns the index of the next entry with the same key, or -1 if this is
+	 * the last one.
+	 */
+	public int next(int entry) {
+		final int n = next[entry];
+		return (n < 0) ? NONE : n;
+	}
+
+	public long getKey(int entry) {
+		return keys[entry];
+	}
+
+	/**
+	 * Returns the inclusive start offset of the entry.
+	 */
+	public long getStart(int entry) {
+		return starts[entry];
+	}
+
+	/**
+	 * Returns the exclusive end offset of the entry.
+	 */
+	public long getEnd(int entry) {
+		return ends[entry];
+	}
+
+	/**
+	 * Returns the distinct keys, in the order they were first put.
+	 */
+	public long[] keys() {
+		final long[] distinct = new long[keyCount];
+		int k = 0;
+		for (int i = 0; i < size; i++) {
+			if (first(keys[i]) == i) {
+				distinct[k++] = keys[i];
+			}
+		}
+		return distinct;
+	}
+
+	/**
+	 * Returns the number of distinct keys both maps contain.
+	 */
+	public int countIntersectingKeys(LongIntervalMultimap other) {
+		if (other.keyCount < keyCount) {
+			return other.countIntersectingKeys(this);
+		}
+		int count = 0;
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] != NONE && other.containsKey(keys[slots[i]])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Copies the entries into a boxed multimap, in insertion order.
+	 */
+	public Multimap<Long, Interval> toMultimap() {
+		final Multimap<Long, Interval> multimap = ArrayListMultimap.create();
+		for (int i = 0; i < size; i++) {
+			multimap.put(keys[i], new Interval(starts[i], ends[i]));
+		}
+		return multimap;
+	}
+
+	/**
+	 * Object override for printing
+	 */
+	@Override
+	public String toString() {
+		return toMultimap().toString();
+	}
+}
@@ -0,0 +1,266 @@
+package org.rabinfingerprint.datastructures;
+
+import java.util.Arrays;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Keeps the largest distinct long keys offered, at most capacity of them, each
+ * with the [start, end) intervals it was offered with. Meant for selecting a
+ * handprint's fingers while chunking, without holding on to the rest.
+ *
+ * The keys are held in a fixed-size min-heap, so a key below the smallest one
+ * held is rejected with a single comparison, which is what almost every offer
+ * comes down to on a large input. Only keys that make it past that are
+ * checked against the held ones, by a linear scan. The intervals of each held
+ * key are chained in a pool of primitive arrays that evicted keys' intervals
+ * are recycled into.
+ *
+ * Reading the keys sorts the heap in ascending order, which keeps it a valid
+ * heap, and lookups binary search it until the next key comes in. Not thread
+ * safe.
+ */
+public class LongIntervalTopK {
+	private static final int NONE = -1;
+
+	private final int capacity;
+
+	// the min-heap of keys held, and the first and last interval of each
+	private final long[] heap;
+	private final int[] heads;
+	private final int[] tails;
+	private int size = 0;
+	private boolean sorted = true;
+
+	// the interval pool. free intervals are chained from free
+	private long[] starts = new long[16];
+	private long[] ends = new long[16];
+	private int[] next = new int[16];
+	private int used = 0;
+	private int free = NONE;
+
+	public LongIntervalTopK(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity must not be negative");
+		}
+		this.capacity = capacity;
+		this.heap = new long[capacity];
+		this.heads = new int[capacity];
+		this.tails = new int[capacity];
+	}
+
+	/**
+	 * Offers an interval of the key. Returns true if the key is now held.
+	 */
+	public boolean offer(long key, long start, long end) {
+		if (start > end) {
+			throw new IllegalArgumentException("Interval indeces out of order");
+		}
+		if (capacity == 0 || (size == capacity && key < heap[0])) {
+			return false;
+		}
+
+		int i = indexOf(key);
+		if (i == NONE && size == capacity) {
+			// replace the smallest key
+			release(heads[0], tails[0]);
+			heap[0] = key;
+			heads[0] = tails[0] = NONE;
+			i = siftDown(0);
+			sorted = false;
+		} else if (i == NONE) {
+			i = size++;
+			heap[i] = key;
+			heads[i] = tails[i] = NONE;
+			i = siftUp(i);
+			sorted = false;
+		}
+
+		final int interval = allocate(start, end);
+		if (heads[i] == NONE) {
+			heads[i] = interval;
+		} else {
+			next[tails[i]] = interval;
+		}
+		tails[i] = interval;
+		return true;
+	}
+
+	private int indexOf(long key) {
+		if (sorted) {
+			final int i = Arrays.binarySearch(heap, 0, size, key);
+			return (i < 0) ? NONE : i;
+		}
+		for (int i = 0; i < size; i++) {
+			if (heap[i] == key) return i;
+		}
+		return NONE;
+	}
+
+	/**
+	 * Sorts the heap in ascending order by insertion sort, which is quick on
+	 * a heap already close to sorted.
+	 */
+	private void sort() {
+		if (sorted) return;
+		for (int i = 1; i < size; i++) {
+			for (int j = i; j > 0 && heap[j] < heap[j - 1]; j--) {
+				swap(j, j - 1);
+			}
+		}
+		sorted = true;
+	}
+
+	private int siftUp(int i) {
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (heap[parent] <= heap[i]) break;
+			swap(i, parent);
+			i = parent;
+		}
+		return i;
+	}
+
+	private int siftDown(int i) {
+		while (true) {
+			final int left = 2 * i + 1;
+			if (left >= size) break;
+			final int right = left + 1;
+			final int child = (right < size && heap[right] < heap[left]) ? right : left;
+			if (heap[i] <= heap[child]) break;
+			swap(i, child);
+			i = child;
+		}
+		return i;
+	}
+
+	private void swap(int i, int j) {
+		final long key = heap[i];
+		heap[i] = heap[j];
+		heap[j] = key;
+		final int head = heads[i];
+		heads[i] = heads[j];
+		heads[j] = head;
+		final int tail = tails[i];
+		tails[i] = tails[j];
+		tails[j] = tail;
+	}
+
+	private int allocate(long start, long end) {
+		int interval = free;
+		if (interval != NONE) {
+			free = next[interval];
+		} else {
+			if (used == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * used);
+				ends = Arrays.copyOf(ends, 2 * used);
+				next = Arrays.copyOf(next, 2 * used);
+			}
+			interval = used++;
+		}
+		starts[interval] = start;
+		ends[interval] = end;
+		next[interval] = NONE;
+		return interval;
+	}
+
+	private void release(int head, int tail) {
+		if (head != NONE) {
+			next[tail] = free;
+			free = head;
+		}
+	}
+
+	/**
+	 * Returns the number of keys held.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public boolean containsKey(long key) {
+		return indexOf(key) != NONE;
+	}
+
+	/**
+	 * Returns the number of intervals of the key.
+	 */
+	public int count(long key) {
+		int count = 0;
+		for (int i = first(key); i != NONE; i = next[i]) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the index of the first interval of the key, or -1 if the key is
+	 * not held.
+	 */
+	public int first(long key) {
+		sort();
+		final int i = indexOf(key);
+		return (i == NONE) ? NONE : heads[i];
+	}
+
+	/**
+	 * Returns the index of the next interval of the same key, or -1 if this is
+	 * the last one.
+	 */
+	public int next(int interval) {
+		return next[interval];
+	}
+
+	/**
+	 * Returns the inclusive start offset of the interval.
+	 */
+	public long getStart(int interval) {
+		return starts[interval];
+	}
+
+	/**
+	 * Returns the exclusive end offset of the interval.
+	 */
+	public long getEnd(int interval) {
+		return ends[interval];
+	}
+
+	/**
+	 * Returns the keys held, in descending order.
+	 */
+	public long[] keys() {
+		sort();
+		final long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = heap[size - 1 - i];
+		}
+		return keys;
+	}
+
+	/**
+	 * Copies the keys held into a boxed multimap, in descending order, each
+	 * with its intervals in the order they were offered.
+	 */
+	public Multimap<Long, Interval> toMultimap() {
+		final Multimap<Long, Interval> multimap = ArrayListMultimap.create();
+		for (long key : keys()) {
+			for (int i = first(key); i != NONE; i = next[i]) {
+				multimap.put(key, new Interval(starts[i], ends[i]));
+			}
+		}
+		return multimap;
+	}
+
+	/**
+	 * Object override for printing
+	 */
+	@Override
+	public String toString() {
+		return toMultimap().toString();
+	}
+}
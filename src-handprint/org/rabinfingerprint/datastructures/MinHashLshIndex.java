@@ -0,0 +1,294 @@
+package org.rabinfingerprint.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * A locality-sensitive hashing index over MinHash signatures, such as those of
+ * {@link BottomKSketch#getSignature(int)}, for finding the near-duplicates of a
+ * set among many others without comparing it to each of them.
+ *
+ * A signature of bands * rows values is cut into bands of rows values, and
+ * each band is hashed into a bucket. Two sets become candidates if they share
+ * the bucket of at least one band, which for sets of Jaccard similarity s
+ * happens with probability
+ *
+ * <pre>
+ *     1 - (1 - s^rows)^bands
+ * </pre>
+ *
+ * an S-curve that rises steepest around the threshold (1 / bands)^(1 / rows).
+ * A higher threshold returns fewer candidates, so queries are faster, but
+ * misses more of the sets just above it. Adding, removing and querying take
+ * time proportional to the number of bands and the candidates found, not the
+ * number of sets indexed.
+ *
+ * Sets are identified by the ids that {@link #add(long[])} hands out. The
+ * buckets are an open-addressing hash table of band hashes pointing into
+ * chains of ids held in primitive arrays. Not thread safe.
+ */
+public class MinHashLshIndex {
+	private static final int NONE = -1;
+
+	private final int bands;
+	private final int rows;
+
+	// the hash table over the band hashes, holding the first entry of each
+	// bucket, or NONE once a bucket is emptied
+	private long[] slotKeys;
+	private int[] slotHeads;
+	private boolean[] slotUsed;
+	private int shift;
+	private int slotsUsed = 0;
+
+	// the bucket entries. free entries are chained from free
+	private int[] entryIds = new int[64];
+	private int[] entryNext = new int[64];
+	private int entriesUsed = 0;
+	private int free = NONE;
+
+	// the band hashes of each id, or null once removed
+	private long[][] bandKeys = new long[64][];
+	private int ids = 0;
+	private int size = 0;
+
+	/**
+	 * Creates an index over signatures of bands * rows values.
+	 */
+	public MinHashLshIndex(int bands, int rows) {
+		if (bands < 1 || rows < 1) {
+			throw new IllegalArgumentException("Bands and rows must be positive");
+		}
+		this.bands = bands;
+		this.rows = rows;
+		allocateSlots(1024);
+	}
+
+	/**
+	 * Creates an index over signatures of at most signatureSize values whose
+	 * threshold, (1 / bands)^(1 / rows), is as close as possible to the given
+	 * Jaccard similarity.
+	 */
+	public static MinHashLshIndex forThreshold(double threshold, int signatureSize) {
+		if (threshold <= 0 || threshold >= 1) {
+			throw new IllegalArgumentException("Threshold must be between 0 and 1");
+		}
+		int bestRows = 1;
+		double bestError = Double.MAX_VALUE;
+		for (int rows = 1; rows <= signatureSize; rows++) {
+			final int bands = signatureSize / rows;
+			final double error = Math.abs(getThreshold(bands, rows) - threshold);
+			if (error < bestError) {
+				bestError = error;
+				bestRows = rows;
+			}
+		}
+		return new MinHashLshIndex(signatureSize / bestRows, bestRows);
+	}
+
+	private static double getThreshold(int bands, int rows) {
+		return Math.pow(1.0 / bands, 1.0 / rows);
+	}
+
+	/**
+	 * Returns the similarity around which sets become likely candidates.
+	 */
+	public double getThreshold() {
+		return getThreshold(bands, rows);
+	}
+
+	/**
+	 * Returns the number of signature values used, bands * rows.
+	 */
+	public int getSignatureSize() {
+		return bands * rows;
+	}
+
+	public int getBands() {
+		return bands;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of sets indexed.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Indexes the signature and returns the id of its set.
+	 */
+	public int add(long[] signature) {
+		final long[] keys = getBandKeys(signature);
+		final int id = ids++;
+		if (id == bandKeys.length) {
+			bandKeys = Arrays.copyOf(bandKeys, 2 * id);
+		}
+		bandKeys[id] = keys;
+		for (long key : keys) {
+			int slot = slot(key);
+			if (!slotUsed[slot]) {
+				// keep the table at most 3/4 full, counting emptied buckets
+				if (slotsUsed + 1 > slotKeys.length - slotKeys.length / 4) {
+					rehash();
+					slot = slot(key);
+				}
+				slotUsed[slot] = true;
+				slotKeys[slot] = key;
+				slotHeads[slot] = NONE;
+				slotsUsed++;
+			}
+			final int entry = allocate(id);
+			entryNext[entry] = slotHeads[slot];
+			slotHeads[slot] = entry;
+		}
+		size++;
+		return id;
+	}
+
+	/**
+	 * Removes the set from the index. Returns false if it was not indexed.
+	 */
+	public boolean remove(int id) {
+		if (id < 0 || id >= ids || bandKeys[id] == null) {
+			return false;
+		}
+		for (long key : bandKeys[id]) {
+			final int slot = slot(key);
+			int previous = NONE;
+			for (int entry = slotHeads[slot]; entry != NONE; entry = entryNext[entry]) {
+				if (entryIds[entry] == id) {
+					if (previous == NONE) {
+						slotHeads[slot] = entryNext[entry];
+					} else {
+						entryNext[previous] = entryNext[entry];
+					}
+					entryNext[entry] = free;
+					free = entry;
+					break;
+				}
+				previous = entry;
+			}
+		}
+		bandKeys[id] = null;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Returns the ids of the sets sharing a band with the signature, in
+	 * ascending order.
+	 */
+	public int[] query(long[] signature) {
+		int[] candidates = new int[16];
+		int count = 0;
+		for (long key : getBandKeys(signature)) {
+			for (int entry = slotHeads[slot(key)]; entry != NONE; entry = entryNext[entry]) {
+				if (count == candidates.length) {
+					candidates = Arrays.copyOf(candidates, 2 * count);
+				}
+				candidates[count++] = entryIds[entry];
+			}
+		}
+
+		// a set sharing several bands is found several times
+		Arrays.sort(candidates, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || candidates[distinct - 1] != candidates[i]) {
+				candidates[distinct++] = candidates[i];
+			}
+		}
+		return Arrays.copyOf(candidates, distinct);
+	}
+
+	/**
+	 * Hashes each band of the signature, together with the band index so that
+	 * equal values in different bands do not collide.
+	 */
+	private long[] getBandKeys(long[] signature) {
+		if (signature.length < bands * rows) {
+			throw new IllegalArgumentException("Signature has fewer than " + (bands * rows) + " values");
+		}
+		final long[] keys = new long[bands];
+		for (int band = 0; band < bands; band++) {
+			long h = mix(band + 1);
+			for (int row = 0; row < rows; row++) {
+				h = mix(h ^ signature[band * rows + row]);
+			}
+			keys[band] = h;
+		}
+		return keys;
+	}
+
+	private static long mix(long h) {
+		h *= 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 29;
+		return h;
+	}
+
+	private void allocateSlots(int slots) {
+		slotKeys = new long[slots];
+		slotHeads = new int[slots];
+		slotUsed = new boolean[slots];
+		Arrays.fill(slotHeads, NONE);
+		shift = 64 - Integer.numberOfTrailingZeros(slots);
+		slotsUsed = 0;
+	}
+
+	/**
+	 * Returns the slot of the band hash, or the unused slot it would go in.
+	 */
+	private int slot(long key) {
+		final int mask = slotKeys.length - 1;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+		while (slotUsed[slot] && slotKeys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Rebuilds the table without the emptied buckets, growing it if it is
+	 * still more than half full.
+	 */
+	private void rehash() {
+		final long[] oldKeys = slotKeys;
+		final int[] oldHeads = slotHeads;
+		final boolean[] oldUsed = slotUsed;
+		int live = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i] && oldHeads[i] != NONE) live++;
+		}
+		allocateSlots(live > oldKeys.length / 2 ? 2 * oldKeys.length : oldKeys.length);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i] && oldHeads[i] != NONE) {
+				final int slot = slot(oldKeys[i]);
+				slotUsed[slot] = true;
+				slotKeys[slot] = oldKeys[i];
+				slotHeads[slot] = oldHeads[i];
+				slotsUsed++;
+			}
+		}
+	}
+
+	private int allocate(int id) {
+		int entry = free;
+		if (entry != NONE) {
+			free = entryNext[entry];
+		} else {
+			if (entriesUsed == entryIds.length) {
+				entryIds = Arrays.copyOf(entryIds, 2 * entriesUsed);
+				entryNext = Arrays.copyOf(entryNext, 2 * entriesUsed);
+			}
+			entry = entriesUsed++;
+		}
+		entryIds[entry] = id;
+		return entry;
+	}
+}
@@ -1,20 +1,34 @@
 package org.rabinfingerprint.handprint;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.rabinfingerprint.datastructures.Interval;
-import org.rabinfingerprint.fingerprint.RabinFingerprintLong;
+import org.rabinfingerprint.fingerprint.Fingerprint.LongFingerprint;
+import org.rabinfingerprint.fingerprint.GearHash;
+import org.rabinfingerprint.fingerprint.RabinFingerprintLongParallel;
+import org.rabinfingerprint.fingerprint.RabinFingerprintLongSliced;
 import org.rabinfingerprint.fingerprint.RabinFingerprintLongWindowed;
 import org.rabinfingerprint.polynomial.Polynomial;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.io.ByteStreams;
 
 public class FingerFactory {
 	public static interface BoundaryDetectorStrategy{
-		public boolean isBoundary(RabinFingerprintLong fingerprint);
+		public boolean isBoundary(long fingerprint);
 	}
 	
 	public static class ByteMaskBoundaryDetectoryStrategy implements BoundaryDetectorStrategy {
@@ -27,94 +41,718 @@ public class FingerFactory {
 		}
 
 		@Override
-		public boolean isBoundary(RabinFingerprintLong fingerprint) {
-			return (fingerprint.getFingerprintLong() & chunkBoundaryMask) == chunkPattern;
+		public boolean isBoundary(long fingerprint) {
+			return (fingerprint & chunkBoundaryMask) == chunkPattern;
 		}
 	}
 	
-	private final RabinFingerprintLong finger;
-	private final RabinFingerprintLongWindowed fingerWindow;
+	/**
+	 * Supplies the rolling hash that chunk boundaries are detected on. The
+	 * chunks themselves are always identified by a Rabin fingerprint.
+	 */
+	public static interface ChunkingEngine {
+		/**
+		 * Returns a fresh rolling hash, one per file chunked.
+		 */
+		public LongFingerprint<?> newBoundaryHash();
+
+		/**
+		 * Returns the number of trailing bytes the boundary hash depends on, so
+		 * that hashing can start that many bytes before the first byte a
+		 * boundary is looked for at.
+		 */
+		public int getWindowBytes();
+	}
+
+	/**
+	 * Finds boundaries with a windowed Rabin fingerprint, which costs a push
+	 * and a pop lookup per byte.
+	 */
+	public static class RabinChunkingEngine implements ChunkingEngine {
+		private final RabinFingerprintLongWindowed fingerWindow;
+		private final int bytesPerWindow;
+
+		public RabinChunkingEngine(Polynomial p, long bytesPerWindow) {
+			this.fingerWindow = new RabinFingerprintLongWindowed(p, bytesPerWindow);
+			this.bytesPerWindow = (int) bytesPerWindow;
+		}
+
+		@Override
+		public LongFingerprint<?> newBoundaryHash() {
+			return new RabinFingerprintLongWindowed(fingerWindow);
+		}
+
+		@Override
+		public int getWindowBytes() {
+			return bytesPerWindow;
+		}
+	}
+
+	/**
+	 * Finds boundaries with a {@link GearHash}, which costs a shift, an add and
+	 * one lookup per byte. Its effective window is the 64 bytes that fit in
+	 * the hash, and only the high bits see all of them, so pair it with a
+	 * boundary detector that tests the high bits.
+	 */
+	public static class GearChunkingEngine implements ChunkingEngine {
+		private final GearHash gear;
+
+		public GearChunkingEngine() {
+			this(GearHash.DEFAULT_SEED);
+		}
+
+		public GearChunkingEngine(long seed) {
+			this.gear = new GearHash(seed);
+		}
+
+		@Override
+		public LongFingerprint<?> newBoundaryHash() {
+			return new GearHash(gear);
+		}
+
+		@Override
+		public int getWindowBytes() {
+			return 64;
+		}
+	}
+
+	/**
+	 * Bounds on the size of a chunk. No boundary is looked for in the first
+	 * minChunkBytes of a chunk, and a chunk is cut at maxChunkBytes when no
+	 * boundary was found by then.
+	 *
+	 * With normalized chunking (as in FastCDC) a stricter detector, i.e. one
+	 * testing more bits, is used until the chunk reaches normalChunkBytes, and
+	 * the regular detector after that. This pulls chunk sizes towards the
+	 * normal size.
+	 */
+	public static class ChunkSizes {
+		public static final ChunkSizes UNBOUNDED = new ChunkSizes(1, Integer.MAX_VALUE);
+
+		private final int minChunkBytes;
+		private final int normalChunkBytes;
+		private final int maxChunkBytes;
+		private final BoundaryDetectorStrategy strictDetector;
+
+		public ChunkSizes(int minChunkBytes, int maxChunkBytes) {
+			this(minChunkBytes, minChunkBytes, maxChunkBytes, null);
+		}
+
+		public ChunkSizes(int minChunkBytes, int normalChunkBytes, int maxChunkBytes,
+				BoundaryDetectorStrategy strictDetector) {
+			if (minChunkBytes < 1 || normalChunkBytes < minChunkBytes || maxChunkBytes < normalChunkBytes) {
+				throw new IllegalArgumentException("Chunk sizes must satisfy 1 <= min <= normal <= max");
+			}
+			this.minChunkBytes = minChunkBytes;
+			this.normalChunkBytes = normalChunkBytes;
+			this.maxChunkBytes = maxChunkBytes;
+			this.strictDetector = strictDetector;
+		}
+	}
+
+	/**
+	 * Receives the fingers of a stream in order, as they are found.
+	 */
+	public static interface FingerVisitor {
+		public void visit(long fingerprint, long start, long end);
+	}
+
+	/** the number of bytes read from the stream at a time */
+	private static final int BUFFER_BYTES = 1 << 20;
+
+	/** the size of the segments a file is split into for parallel chunking */
+	public static final long SEGMENT_BYTES = 64 * (1 << 20); // 64 MB
+
+	/** the largest part of a file mapped at once */
+	private static final long MAP_BYTES = 1 << 30;
+
+	/** the number of window fingerprints computed per pass */
+	private static final int BLOCK_BYTES = 1 << 16;
+
+	private final RabinFingerprintLongSliced finger;
+	private final ChunkingEngine engine;
 	private final BoundaryDetectorStrategy boundaryDetector;
+	private final ChunkSizes chunkSizes;
 
 	public FingerFactory(Polynomial p, long bytesPerWindow, BoundaryDetectorStrategy boundaryDetector) {
-		this.finger = new RabinFingerprintLong(p);
-		this.fingerWindow = new RabinFingerprintLongWindowed(p, bytesPerWindow);
-		this.boundaryDetector = boundaryDetector;
+		this(p, new RabinChunkingEngine(p, bytesPerWindow), boundaryDetector);
 	}
 
-	private RabinFingerprintLong newFingerprint() {
-		return new RabinFingerprintLong(finger);
+	public FingerFactory(Polynomial p, ChunkingEngine engine, BoundaryDetectorStrategy boundaryDetector) {
+		this(p, engine, boundaryDetector, ChunkSizes.UNBOUNDED);
 	}
 
-	private RabinFingerprintLongWindowed newWindowedFingerprint() {
-		return new RabinFingerprintLongWindowed(fingerWindow);
+	public FingerFactory(Polynomial p, ChunkingEngine engine, BoundaryDetectorStrategy boundaryDetector,
+			ChunkSizes chunkSizes) {
+		this.finger = new RabinFingerprintLongSliced(p);
+		this.engine = engine;
+		this.boundaryDetector = boundaryDetector;
+		this.chunkSizes = chunkSizes;
+	}
+
+	private LongFingerprint<Polynomial> newFingerprint() {
+		return new RabinFingerprintLongSliced(finger);
 	}
 
 	/**
 	 * Fingerprint the file into chunks called "Fingers". The chunk boundaries
-	 * are determined using a windowed fingerprinter such as
-	 * {@link RabinFingerprintLongWindowed}. This guarantees that a long chunk
+	 * are determined using a rolling hash from the {@link ChunkingEngine},
+	 * such as a {@link RabinFingerprintLongWindowed}. This guarantees that a long chunk
 	 * of data will always contains some fingers that hash to same value. This
 	 * is the KEY to the utility of the handprinting scheme for file similarity.
 	 * Even if you re-arrange a file's contents or corrupt parts of it, the hand
 	 * print will be able to find all the parts that are similar in a very
 	 * efficient manner.
+	 * 
+	 * The stream is reset first if it supports marks, and is then read
+	 * through a fixed size buffer, so memory use does not depend on its size.
 	 */
 	public Multimap<Long, Interval> getAllFingers(InputStream is) throws IOException {
-		// windowing fingerprinter for finding chunk boundaries. this is only
-		// reset at the beginning of the file
-		final RabinFingerprintLong window = newWindowedFingerprint();
+		final Multimap<Long, Interval> chunks = ArrayListMultimap.create();
+		visitFingers(is, new FingerVisitor() {
+			@Override
+			public void visit(long fingerprint, long start, long end) {
+				chunks.put(fingerprint, new Interval(start, end));
+			}
+		});
+		return chunks;
+	}
 
-		// fingerprinter for chunks. this is reset after each chunk
-		final RabinFingerprintLong finger = newFingerprint();
+	/**
+	 * Like {@link #getAllFingers(InputStream)}, but hands each finger to the
+	 * visitor as soon as it is found instead of collecting them.
+	 * 
+	 * Returns the palm of the stream, the same as {@link #getPalm(InputStream)}
+	 * would, which is stitched together from the fingers on the way so that
+	 * the data only has to be read once.
+	 */
+	public long visitFingers(InputStream is, FingerVisitor visitor) throws IOException {
+		if (is.markSupported()) {
+			is.reset();
+		}
+		final PalmVisitor palm = new PalmVisitor(visitor);
+		chunk(new StreamSource(is), 0, 0, false, null, palm);
+		return palm.palm;
+	}
 
-		// counters
-		long chunkStart = 0;
-		long chunkEnd = 0;
+	/**
+	 * Like {@link #visitFingers(InputStream, FingerVisitor)}, reading the
+	 * channel from its current position. The channel must be blocking.
+	 */
+	public long visitFingers(ReadableByteChannel channel, FingerVisitor visitor) throws IOException {
+		if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+			throw new IllegalArgumentException("Channel must be in blocking mode");
+		}
+		final PalmVisitor palm = new PalmVisitor(visitor);
+		chunk(new ChannelSource(channel), 0, 0, false, null, palm);
+		return palm.palm;
+	}
 
-		/*
-		 * fingerprint one byte at a time. we have to use this granularity to
-		 * ensure that, for example, a one byte offset at the beginning of the
-		 * file won't effect the chunk boundaries
-		 */
+	/**
+	 * Chunks the file on the pool. The result is identical to
+	 * {@link #getAllFingers(InputStream)} over the file.
+	 */
+	public Multimap<Long, Interval> getAllFingers(File file, ForkJoinPool pool) throws IOException {
 		final Multimap<Long, Interval> chunks = ArrayListMultimap.create();
-		is.reset();
-		for (byte b : ByteStreams.toByteArray(is)) {
-			// push byte into fingerprints
-			window.pushByte(b);
-			finger.pushByte(b);
-			chunkEnd++;
+		final FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			visitFingers(channel, pool, SEGMENT_BYTES, new FingerVisitor() {
+				@Override
+				public void visit(long fingerprint, long start, long end) {
+					chunks.put(fingerprint, new Interval(start, end));
+				}
+			});
+		} finally {
+			channel.close();
+		}
+		return chunks;
+	}
+
+	/**
+	 * Chunks the channel's entire contents on the pool, handing the fingers to
+	 * the visitor in order on the calling thread, and returns the palm. The
+	 * result is identical to {@link #visitFingers(InputStream, FingerVisitor)}.
+	 * 
+	 * The channel is split into segments that are memory-mapped and chunked
+	 * independently, each as if a chunk started right at the segment, with the
+	 * boundary hash primed from the bytes just before it. Since a boundary
+	 * only depends on the chunk start and the last few bytes, a segment's
+	 * chunks are exactly the sequential ones from the first chunk start the
+	 * two have in common. The segments are stitched together by chunking
+	 * sequentially from the last chunk start known to be right until it lands
+	 * on a chunk start of the next segment, which usually takes a chunk or
+	 * two.
+	 */
+	public long visitFingers(FileChannel channel, ForkJoinPool pool, long segmentBytes, FingerVisitor visitor)
+			throws IOException {
+		if (segmentBytes <= 0) {
+			throw new IllegalArgumentException("Segment size must be positive");
+		}
+		final Stitcher stitcher = new Stitcher(channel, pool, segmentBytes);
+		final PalmVisitor palm = new PalmVisitor(visitor);
+
+		// the start of the first chunk not visited yet, which is always right
+		long position = 0;
+		try {
+			while (stitcher.advance()) {
+				if (!stitcher.isSynced(position)) {
+					// chunk sequentially, across as many segments as it takes
+					final long readStart = Math.max(0, position - engine.getWindowBytes());
+					position = chunk(new MappedSource(channel, readStart, stitcher.size), readStart, position, false,
+							stitcher, palm);
+					if (!stitcher.isSynced(position)) break;
+				}
+				final Segment segment = stitcher.segment;
+				for (int j = segment.indexOfStart(position); j < segment.count; j++) {
+					palm.visit(segment.fingerprints[j], segment.starts[j], segment.ends[j]);
+				}
+				position = segment.ends[segment.count - 1];
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			stitcher.cancel();
+		}
+		return palm.palm;
+	}
+
+	/**
+	 * Chunks the bytes of the source, whose first byte is at sourceStart,
+	 * starting a chunk at origin. Bytes before origin only prime the boundary
+	 * hash. If partialTail is set, a chunk cut short by the end of the source
+	 * is dropped. If sync is given, chunking stops after the first chunk that
+	 * ends on a chunk start of the segments. Returns the end of the last
+	 * visited chunk.
+	 */
+	private long chunk(ByteSource source, long sourceStart, long origin, boolean partialTail, Stitcher sync,
+			FingerVisitor visitor) throws IOException {
+		// rolling hash for finding chunk boundaries. this is reset only when
+		// skipping ahead over the start of a chunk
+		final LongFingerprint<?> window = engine.newBoundaryHash();
+		final int windowBytes = engine.getWindowBytes();
+
+		// fingerprinter for chunks. this is reset after each chunk, and is fed
+		// the chunk piecewise as the buffer moves on
+		final LongFingerprint<Polynomial> finger = newFingerprint();
+
+		final int minChunkBytes = chunkSizes.minChunkBytes;
+		final int normalChunkBytes = chunkSizes.normalChunkBytes;
+		final int maxChunkBytes = chunkSizes.maxChunkBytes;
+		final BoundaryDetectorStrategy strictDetector = (chunkSizes.strictDetector == null) ? boundaryDetector
+				: chunkSizes.strictDetector;
+
+		final ChunkBuffer buffer = new ChunkBuffer(source, sourceStart, origin, finger);
+		final long[] fingerprints = new long[Math.min(BLOCK_BYTES, buffer.bytes.length)];
+
+		// the boundary hashes of bytes blockStart to blockEnd - 1. all
+		// positions are offsets into the whole stream
+		long blockStart = sourceStart;
+		long blockEnd = sourceStart;
+
+		long chunkStart = origin;
+		while (true) {
+			// a chunk ends after byte first - 1 at the earliest and after byte
+			// last - 1 at the latest
+			final long first = chunkStart + minChunkBytes;
+			final long last = chunkStart + maxChunkBytes;
 
 			/*
-			 * if we've reached a boundary (which we will at some probability
-			 * based on the boundary pattern and the size of the fingerprint
-			 * window), we store the current chunk fingerprint and reset the
-			 * chunk fingerprinter.
+			 * the boundary hash only depends on the last few bytes, so the
+			 * bytes before those leading up to the first possible boundary
+			 * can be skipped without changing any boundaries
 			 */
-			if (boundaryDetector.isBoundary(window)) {
-				chunks.put(finger.getFingerprintLong(), new Interval(chunkStart, chunkEnd));
-				finger.reset();
-				
-				// store last chunk offset
-				chunkStart = chunkEnd;
+			final long primeStart = first - windowBytes;
+			if (primeStart > blockEnd) {
+				window.reset();
+				blockStart = blockEnd = primeStart;
 			}
+
+			/*
+			 * the boundary hash is checked after every byte. we have to use
+			 * this granularity to ensure that, for example, a one byte offset
+			 * at the beginning of the file won't effect the chunk boundaries
+			 */
+			long chunkEnd = last;
+			boolean cutShort = false;
+			for (long i = first - 1; i < last; i++) {
+				while (i >= blockEnd) {
+					if (!buffer.fill(blockEnd)) break;
+					// no further than the chunk can reach, so skipping ahead
+					// to the next chunk does not hash bytes for nothing
+					final long reach = Math.min(buffer.end, last);
+					final int length = (int) Math.min(fingerprints.length, reach - blockEnd);
+					window.pushBytes(buffer.bytes, (int) (blockEnd - buffer.start), length, fingerprints);
+					blockStart = blockEnd;
+					blockEnd = blockStart + length;
+				}
+				if (i >= blockEnd) {
+					chunkEnd = buffer.end;
+					cutShort = true;
+					break;
+				}
+
+				/*
+				 * if we've reached a boundary (which we will at some
+				 * probability based on the boundary pattern and the size of
+				 * the hash window), we fingerprint and store the current
+				 * chunk.
+				 */
+				final BoundaryDetectorStrategy detector = (i + 1 - chunkStart < normalChunkBytes) ? strictDetector
+						: boundaryDetector;
+				if (detector.isBoundary(fingerprints[(int) (i - blockStart)])) {
+					chunkEnd = i + 1;
+					break;
+				}
+			}
+
+			if (cutShort && partialTail) break;
+			buffer.pushTo(chunkEnd);
+			if (chunkEnd > chunkStart || chunkStart == 0) {
+				visitor.visit(finger.getFingerprintLong(), chunkStart, chunkEnd);
+			}
+			finger.reset();
+
+			// store last chunk offset
+			chunkStart = chunkEnd;
+			if (sync != null && sync.isSynced(chunkStart)) break;
+			if (!buffer.fill(chunkStart)) break;
 		}
+		return chunkStart;
+	}
 
-		// final chunk
-		chunks.put(finger.getFingerprintLong(), new Interval(chunkStart, chunkEnd));
-		return chunks;
+	/**
+	 * Stitches the palm together from the fingers passing through.
+	 */
+	private final class PalmVisitor implements FingerVisitor {
+		private final FingerVisitor visitor;
+		private long palm = 0;
+
+		private PalmVisitor(FingerVisitor visitor) {
+			this.visitor = visitor;
+		}
+
+		@Override
+		public void visit(long fingerprint, long start, long end) {
+			palm = finger.combine(palm, fingerprint, end - start);
+			visitor.visit(fingerprint, start, end);
+		}
+	}
+
+	/**
+	 * The chunks of one segment, from a chunk assumed to start at the start of
+	 * the segment up to the last one ending within it.
+	 */
+	private static final class Segment implements FingerVisitor {
+		private final long start;
+		private final long end;
+		private final boolean last;
+		private int count = 0;
+		private long[] starts = new long[16];
+		private long[] ends = new long[16];
+		private long[] fingerprints = new long[16];
+
+		private Segment(long start, long end, boolean last) {
+			this.start = start;
+			this.end = end;
+			this.last = last;
+		}
+
+		@Override
+		public void visit(long fingerprint, long start, long end) {
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * count);
+				ends = Arrays.copyOf(ends, 2 * count);
+				fingerprints = Arrays.copyOf(fingerprints, 2 * count);
+			}
+			starts[count] = start;
+			ends[count] = end;
+			fingerprints[count] = fingerprint;
+			count++;
+		}
+
+		/**
+		 * Returns the index of the chunk starting at the position, or a
+		 * negative number if there is none.
+		 */
+		private int indexOfStart(long position) {
+			return Arrays.binarySearch(starts, 0, count, position);
+		}
+	}
+
+	/**
+	 * Hands out the segments of a channel in order, keeping a bounded number
+	 * of them in flight on the pool.
+	 */
+	private final class Stitcher {
+		private final FileChannel channel;
+		private final ForkJoinPool pool;
+		private final long segmentBytes;
+		private final long size;
+		private final ArrayDeque<SegmentTask> tasks = new ArrayDeque<SegmentTask>();
+		private long next = 0;
+		private boolean done = false;
+		/** the current segment, or null once they have all been handed out */
+		private Segment segment;
+
+		private Stitcher(FileChannel channel, ForkJoinPool pool, long segmentBytes) throws IOException {
+			this.channel = channel;
+			this.pool = pool;
+			this.segmentBytes = segmentBytes;
+			this.size = channel.size();
+		}
+
+		/**
+		 * Moves on to the next segment. Returns false if there are no more.
+		 */
+		private boolean advance() {
+			final int ahead = 2 * pool.getParallelism();
+			while (!done && tasks.size() < ahead) {
+				final long end = Math.min(size, next + segmentBytes);
+				done = end == size;
+				tasks.add(new SegmentTask(channel, next, end, done));
+				pool.execute(tasks.peekLast());
+				next = end;
+			}
+			final SegmentTask task = tasks.poll();
+			segment = task == null ? null : task.join();
+			return segment != null;
+		}
+
+		/**
+		 * Returns true if a chunk of the current segment or a later one
+		 * starts at the position, moving on to that segment.
+		 */
+		private boolean isSynced(long position) {
+			while (segment != null && position >= segment.end && !segment.last) {
+				advance();
+			}
+			return segment != null && segment.indexOfStart(position) >= 0;
+		}
+
+		private void cancel() {
+			for (SegmentTask task : tasks) {
+				task.cancel(false);
+			}
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private final class SegmentTask extends RecursiveTask<Segment> {
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final boolean last;
+
+		private SegmentTask(FileChannel channel, long start, long end, boolean last) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.last = last;
+		}
+
+		@Override
+		protected Segment compute() {
+			final Segment segment = new Segment(start, end, last);
+			final long readStart = Math.max(0, start - engine.getWindowBytes());
+			try {
+				chunk(new MappedSource(channel, readStart, end), readStart, start, !last, null, segment);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return segment;
+		}
 	}
 
 	/**
 	 * Rapidly fingerprint an entire file's contents.
 	 * 
 	 * We use the term "Palm" to describe the fingerprint of the entire file,
-	 * instead of chunks, which are referred to as the file's "Fingers".
+	 * instead of chunks, which are referred to as the file's "Fingers". Like
+	 * {@link #getAllFingers(InputStream)} the stream is reset if possible and
+	 * read through a fixed size buffer.
 	 */
 	public long getPalm(InputStream is) throws IOException {
-		final RabinFingerprintLong finger = newFingerprint();
-		is.reset();
-		finger.pushBytes(ByteStreams.toByteArray(is));
+		final LongFingerprint<Polynomial> finger = newFingerprint();
+		if (is.markSupported()) {
+			is.reset();
+		}
+		final byte[] bytes = new byte[BUFFER_BYTES];
+		int n;
+		while ((n = is.read(bytes)) != -1) {
+			finger.pushBytes(bytes, 0, n);
+		}
 		return finger.getFingerprintLong();
 	}
+
+	/**
+	 * A source of bytes, so streams and channels can share the chunker.
+	 */
+	private static abstract class ByteSource {
+		/**
+		 * Reads up to length bytes, returning -1 at the end of the source.
+		 */
+		abstract int read(byte[] bytes, int offset, int length) throws IOException;
+
+		/**
+		 * Returns the size of the buffer worth reading this source through.
+		 */
+		int getBufferBytes() {
+			return BUFFER_BYTES;
+		}
+	}
+
+	private static class StreamSource extends ByteSource {
+		private final InputStream is;
+
+		StreamSource(InputStream is) {
+			this.is = is;
+		}
+
+		@Override
+		int read(byte[] bytes, int offset, int length) throws IOException {
+			return is.read(bytes, offset, length);
+		}
+	}
+
+	private static class ChannelSource extends ByteSource {
+		private final ReadableByteChannel channel;
+
+		ChannelSource(ReadableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		int read(byte[] bytes, int offset, int length) throws IOException {
+			return channel.read(ByteBuffer.wrap(bytes, offset, length));
+		}
+	}
+
+	/**
+	 * Reads part of a file through read-only memory mappings of up to
+	 * MAP_BYTES each.
+	 */
+	private static class MappedSource extends ByteSource {
+		private final FileChannel channel;
+		private final long end;
+		private long position;
+		private ByteBuffer mapped;
+
+		MappedSource(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		int read(byte[] bytes, int offset, int length) throws IOException {
+			if (mapped == null || !mapped.hasRemaining()) {
+				if (position >= end) return -1;
+				final long size = Math.min(MAP_BYTES, end - position);
+				mapped = channel.map(MapMode.READ_ONLY, position, size);
+				position += size;
+			}
+			final int n = Math.min(length, mapped.remaining());
+			mapped.get(bytes, offset, n);
+			return n;
+		}
+
+		@Override
+		int getBufferBytes() {
+			return (int) Math.max(1, Math.min(BUFFER_BYTES, end - position));
+		}
+	}
+
+	/**
+	 * A window of BUFFER_BYTES over the source, holding the bytes from start
+	 * to end - 1. When it moves on, the bytes of the current chunk that are
+	 * about to be dropped are pushed to the chunk fingerprint first, so a
+	 * chunk never has to fit in the buffer.
+	 */
+	private static class ChunkBuffer {
+		final byte[] bytes;
+		final ByteSource source;
+		final LongFingerprint<Polynomial> finger;
+		long start;
+		long end;
+		/** the bytes before this have been pushed to the chunk fingerprint */
+		long pushed;
+		boolean eof = false;
+
+		ChunkBuffer(ByteSource source, long sourceStart, long origin, LongFingerprint<Polynomial> finger) {
+			this.bytes = new byte[source.getBufferBytes()];
+			this.source = source;
+			this.start = this.end = sourceStart;
+			this.pushed = origin;
+			this.finger = finger;
+		}
+
+		/**
+		 * Reads on until the byte at the position is in the buffer. Returns
+		 * false if the source ends before it. Every byte dropped on the way
+		 * must belong to the current chunk.
+		 */
+		boolean fill(long position) throws IOException {
+			while (position >= end) {
+				if (eof) return false;
+				pushTo(end);
+				final int n = source.read(bytes, 0, bytes.length);
+				if (n == 0) {
+					// a blocking source reads at least one byte
+					throw new IOException("Source read no bytes; is it non-blocking?");
+				}
+				if (n < 0) {
+					eof = true;
+					return false;
+				}
+				start = end;
+				end = start + n;
+			}
+			return true;
+		}
+
+		/**
+		 * Pushes the buffered bytes up to the position to the chunk
+		 * fingerprint.
+		 */
+		void pushTo(long position) {
+			if (position > pushed) {
+				finger.pushBytes(bytes, (int) (pushed - start), (int) (position - pushed));
+				pushed = position;
+			}
+		}
+	}
+
+	/**
+	 * Fingerprints an entire file's contents through a read-only memory
+	 * mapping instead of copying them onto the heap. The result is the same as
+	 * {@link #getPalm(InputStream)} over the file.
+	 */
+	public long getPalm(File file) throws IOException {
+		final LongFingerprint<Polynomial> finger = newFingerprint();
+		final FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			final long size = channel.size();
+			for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+				long length = Math.min(Integer.MAX_VALUE, size - position);
+				finger.pushBytes(channel.map(MapMode.READ_ONLY, position, length));
+			}
+		} finally {
+			channel.close();
+		}
+		return finger.getFingerprintLong();
+	}
+
+	/**
+	 * Fingerprints an entire file's contents by splitting it into segments
+	 * that are fingerprinted on the pool and combined. The result is identical
+	 * to {@link #getPalm(File)}.
+	 */
+	public long getPalm(File file, ForkJoinPool pool) throws IOException {
+		final FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			return new RabinFingerprintLongParallel(finger).fingerprint(channel, pool);
+		} finally {
+			channel.close();
+		}
+	}
 }
\ No newline at end of file
@@ -1,59 +1,164 @@
 package org.rabinfingerprint.handprint;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Comparator;
-import java.util.TreeSet;
 
+import org.rabinfingerprint.datastructures.BottomKSketch;
 import org.rabinfingerprint.datastructures.Interval;
+import org.rabinfingerprint.datastructures.LongIntervalMultimap;
+import org.rabinfingerprint.datastructures.LongIntervalTopK;
+import org.rabinfingerprint.handprint.FingerFactory.FingerVisitor;
 import org.rabinfingerprint.handprint.Handprints.HandprintException;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
 
 public class Handprint {
+	public static final int DEFAULT_SKETCH_SIZE = 256;
+
 	private final InputStream stream;
+	private final File file;
 	private final FingerFactory factory;
 	private final int fingersPerHand;
+	private final int sketchSize;
+	private final boolean keepAllFingers;
 
 	private Long palm;
-	private Multimap<Long, Interval> fingers;
+	private LongIntervalMultimap fingers;
+	private LongIntervalTopK handTopK;
+	private BottomKSketch sketch;
+	private long[] handFingerprints;
 	private Multimap<Long, Interval> hand;
 
 	public Handprint(InputStream stream, int fingersPerHand, FingerFactory factory) {
+		this(stream, fingersPerHand, true, factory);
+	}
+
+	public Handprint(InputStream stream, int fingersPerHand, boolean keepAllFingers, FingerFactory factory) {
+		this(stream, fingersPerHand, DEFAULT_SKETCH_SIZE, keepAllFingers, factory);
+	}
+
+	/**
+	 * Unless keepAllFingers is set, only the palm, the hand and the sketch are
+	 * kept, so the memory used is bounded by fingersPerHand and sketchSize
+	 * whatever the size of the stream, and the methods that need all fingers
+	 * throw an IllegalStateException.
+	 */
+	public Handprint(InputStream stream, int fingersPerHand, int sketchSize, boolean keepAllFingers,
+			FingerFactory factory) {
+		this(stream, null, fingersPerHand, sketchSize, keepAllFingers, factory);
+	}
+
+	/**
+	 * Reads the file, which is only opened while the handprint is computed.
+	 */
+	public Handprint(File file, int fingersPerHand, int sketchSize, boolean keepAllFingers, FingerFactory factory) {
+		this(null, file, fingersPerHand, sketchSize, keepAllFingers, factory);
+	}
+
+	private Handprint(InputStream stream, File file, int fingersPerHand, int sketchSize, boolean keepAllFingers,
+			FingerFactory factory) {
 		this.stream = stream;
+		this.file = file;
 		this.factory = factory;
 		this.fingersPerHand = fingersPerHand;
+		this.sketchSize = sketchSize;
+		this.keepAllFingers = keepAllFingers;
+	}
+
+	/**
+	 * Restores a handprint from the palm, hand and sketch computed before for
+	 * a stream. It has no stream to compute anything else from, so the
+	 * methods that need all fingers throw an IllegalStateException.
+	 */
+	public Handprint(long palm, LongIntervalTopK hand, BottomKSketch sketch) {
+		this.stream = null;
+		this.file = null;
+		this.factory = null;
+		this.fingersPerHand = hand.capacity();
+		this.sketchSize = sketch.getK();
+		this.keepAllFingers = false;
+		this.palm = palm;
+		this.handTopK = hand;
+		this.sketch = sketch;
 	}
 
 	public void buildAll() {
 		getPalm();
-		getAllFingers();
 		getHandFingers();
 	}
 
+	/**
+	 * Returns the fingerprint of the whole stream. This computes the fingers
+	 * as well, in the same pass over the stream.
+	 */
 	public Long getPalm() {
-		if (palm != null)
-			return palm;
-		try {
-			palm = factory.getPalm(stream);
-		} catch (IOException e) {
-			throw new HandprintException("Error while computing fingerprints", e);
-		}
+		if (palm == null)
+			buildPalmAndFingers();
 		return palm;
 	}
 
+	/**
+	 * Returns all fingers of the stream. This computes the palm and the hand
+	 * as well, in the same pass over the stream.
+	 */
+	public LongIntervalMultimap getFingerMap() {
+		if (!keepAllFingers)
+			throw new IllegalStateException("All fingers are only kept with keepAllFingers");
+		if (palm == null)
+			buildPalmAndFingers();
+		return fingers;
+	}
+
+	/**
+	 * Returns a boxed copy of {@link #getFingerMap()}, which takes several
+	 * times the memory.
+	 */
 	public Multimap<Long, Interval> getAllFingers() {
-		if (fingers != null)
-			return fingers;
+		return getFingerMap().toMultimap();
+	}
+
+	private void buildPalmAndFingers() {
+		final LongIntervalMultimap all = keepAllFingers ? new LongIntervalMultimap() : null;
+		final LongIntervalTopK top = new LongIntervalTopK(fingersPerHand);
+		final BottomKSketch bottom = new BottomKSketch(sketchSize);
+		final FingerVisitor visitor = new FingerVisitor() {
+			@Override
+			public void visit(long fingerprint, long start, long end) {
+				if (all != null)
+					all.put(fingerprint, start, end);
+				top.offer(fingerprint, start, end);
+				bottom.add(fingerprint);
+			}
+		};
 		try {
-			fingers = factory.getAllFingers(stream);
+			if (file == null) {
+				palm = factory.visitFingers(stream, visitor);
+			} else {
+				final InputStream is = new FileInputStream(file);
+				try {
+					palm = factory.visitFingers(is, visitor);
+				} finally {
+					is.close();
+				}
+			}
 		} catch (IOException e) {
 			throw new HandprintException("Error while computing fingerprints", e);
 		}
-		return fingers;
+		fingers = all;
+		handTopK = top;
+		sketch = bottom;
+	}
+
+	/**
+	 * Returns a bottom-k sketch of the distinct fingerprints of the stream.
+	 */
+	public BottomKSketch getSketch() {
+		if (palm == null)
+			buildPalmAndFingers();
+		return sketch;
 	}
 	
 	public static final Comparator<Long> REVERSE_LONG_SORT = new Comparator<Long>() {
@@ -63,25 +168,57 @@ public class Handprint {
 		}
 	};
 
+	/**
+	 * Returns the largest fingerprints, at most fingersPerHand of them, in
+	 * descending order.
+	 */
+	public long[] getHandFingerprints() {
+		if (handFingerprints != null)
+			return handFingerprints;
+		getPalm();
+		handFingerprints = handTopK.keys();
+		return handFingerprints;
+	}
+
+	/**
+	 * Returns the largest fingerprints with their intervals, without boxing
+	 * them like {@link #getHandFingers()}.
+	 */
+	public LongIntervalTopK getHand() {
+		getPalm();
+		return handTopK;
+	}
+
 	public Multimap<Long, Interval> getHandFingers() {
 		if (hand != null)
 			return hand;
-		hand = ArrayListMultimap.create();
-		Multimap<Long, Interval> all = getAllFingers();
-		TreeSet<Long> keys = Sets.newTreeSet(REVERSE_LONG_SORT);
-		keys.addAll(all.keySet());
-		for (Long key : Iterables.limit(keys, fingersPerHand)) {
-			hand.putAll(key, all.get(key));
-		}
+		getPalm();
+		hand = handTopK.toMultimap();
 		return hand;
 	}
 
 	public int getFingerCount() {
-		return getAllFingers().size();
+		return getFingerMap().size();
 	}
 
 	public int getIntersectingFingerCount(Handprint other) {
-		return Sets.intersection(getAllFingers().keySet(), other.getAllFingers().keySet()).size();
+		return getFingerMap().countIntersectingKeys(other.getFingerMap());
+	}
+
+	/**
+	 * Estimates the Jaccard similarity of the distinct fingerprints of the two
+	 * streams from their sketches, without needing all fingers.
+	 */
+	public double estimateSimilarity(Handprint other) {
+		return getSketch().estimateJaccard(other.getSketch());
+	}
+
+	/**
+	 * Estimates the fraction of the distinct fingerprints of this stream that
+	 * the other stream has as well, from their sketches.
+	 */
+	public double estimateContainment(Handprint other) {
+		return getSketch().estimateContainment(other.getSketch());
 	}
 
 	public double getSimilarity(Handprint other) {
@@ -0,0 +1,459 @@
+package org.rabinfingerprint.handprint;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.rabinfingerprint.datastructures.BottomKSketch;
+import org.rabinfingerprint.datastructures.LongIntervalTopK;
+import org.rabinfingerprint.handprint.Handprints.HandPrintFactory;
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * A compact binary encoding of handprints, for storing or shipping the
+ * handprints of many files.
+ *
+ * A header, written once, records the polynomial and the parameters of the
+ * factory the handprints were made with. It is followed by a record per
+ * handprint holding its palm, hand and sketch:
+ *
+ * <pre>
+ *     header:  magic (int), version (byte), polynomial (bytes), parameters (UTF-8)
+ *     record:  palm (long), fingers, then for each finger in descending order
+ *              the distance to the previous one and its intervals, each as
+ *              the distance from the previous start and the length;
+ *              k, values, then the sketch values in ascending order as the
+ *              distance to the previous one
+ * </pre>
+ *
+ * All numbers but the magic and the palm are LEB128 varints, byte arrays and
+ * strings are prefixed with their length, and interval starts are zigzag
+ * encoded as they need not ascend. Sorting turns fingerprints and sketch
+ * values spread over the longs into distances a few bits shorter, and chunk
+ * offsets and lengths take two or three bytes rather than eight.
+ *
+ * Handprints are read and written through a DataInput or DataOutput, such as
+ * a stream or a RandomAccessFile, or through a ByteBuffer, one varint at a
+ * time straight from and into the primitive hand and sketch. Buffers are
+ * read and written in big-endian order like the streams, whatever order they
+ * are set to.
+ */
+public class HandprintCodec {
+	public static final int MAGIC = 0x52464850; // RFHP
+	public static final int VERSION = 1;
+
+	/**
+	 * The largest hands, sketches and header strings read, so that a corrupt
+	 * record cannot make the reader allocate more.
+	 */
+	private static final int MAX_HAND_SIZE = 1 << 20;
+	private static final int MAX_SKETCH_SIZE = 1 << 20;
+	private static final int MAX_HEADER_BYTES = 1 << 16;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The polynomial and parameters a header was written with.
+	 */
+	public static class Header {
+		private final Polynomial polynomial;
+		private final String parameters;
+
+		private Header(Polynomial polynomial, String parameters) {
+			this.polynomial = polynomial;
+			this.parameters = parameters;
+		}
+
+		public Polynomial getPolynomial() {
+			return polynomial;
+		}
+
+		/**
+		 * Returns the {@link HandPrintFactory#getParameters()} of the factory.
+		 */
+		public String getParameters() {
+			return parameters;
+		}
+
+		/**
+		 * Returns whether the factory makes handprints comparable to those
+		 * written after the header.
+		 */
+		public boolean matches(HandPrintFactory factory) {
+			return parameters.equals(factory.getParameters());
+		}
+	}
+
+	public static void writeHeader(HandPrintFactory factory, DataOutput out) throws IOException {
+		writeHeader(factory, new DataOutputSink(out));
+	}
+
+	public static void writeHeader(HandPrintFactory factory, ByteBuffer buffer) throws IOException {
+		writeHeader(factory, new BufferSink(buffer));
+	}
+
+	public static Header readHeader(DataInput in) throws IOException {
+		return readHeader(new DataInputSource(in));
+	}
+
+	public static Header readHeader(ByteBuffer buffer) throws IOException {
+		return readHeader(new BufferSource(buffer));
+	}
+
+	public static void write(Handprint handprint, DataOutput out) throws IOException {
+		write(handprint, new DataOutputSink(out));
+	}
+
+	/**
+	 * Writes the handprint at the position of the buffer, which throws a
+	 * BufferOverflowException if it does not fit.
+	 */
+	public static void write(Handprint handprint, ByteBuffer buffer) throws IOException {
+		write(handprint, new BufferSink(buffer));
+	}
+
+	/**
+	 * Reads a handprint, throwing an IOException if the record is truncated
+	 * or corrupt.
+	 */
+	public static Handprint read(DataInput in) throws IOException {
+		return read(new DataInputSource(in));
+	}
+
+	public static Handprint read(ByteBuffer buffer) throws IOException {
+		return read(new BufferSource(buffer));
+	}
+
+	/**
+	 * Returns the number of bytes the handprint is written in.
+	 */
+	public static int getEncodedBytes(Handprint handprint) {
+		final CountingSink sink = new CountingSink();
+		try {
+			write(handprint, sink);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return sink.count;
+	}
+
+	private static void writeHeader(HandPrintFactory factory, Sink out) throws IOException {
+		out.writeInt(MAGIC);
+		writeVarint(out, VERSION);
+		writeBytes(out, factory.getPolynomial().toBigInteger().toByteArray());
+		writeBytes(out, factory.getParameters().getBytes(UTF8));
+	}
+
+	private static Header readHeader(Source in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a handprint header");
+		final long version = readVarint(in);
+		if (version != VERSION)
+			throw new IOException("Unsupported handprint version " + version);
+		final Polynomial polynomial = Polynomial.createFromBytes(readBytes(in));
+		return new Header(polynomial, new String(readBytes(in), UTF8));
+	}
+
+	private static void write(Handprint handprint, Sink out) throws IOException {
+		out.writeLong(handprint.getPalm());
+
+		final LongIntervalTopK hand = handprint.getHand();
+		final long[] fingerprints = hand.keys();
+		writeVarint(out, fingerprints.length);
+		for (int i = 0; i < fingerprints.length; i++) {
+			writeVarint(out, (i == 0) ? fingerprints[0] : fingerprints[i - 1] - fingerprints[i]);
+			writeVarint(out, hand.count(fingerprints[i]));
+			long start = 0;
+			for (int j = hand.first(fingerprints[i]); j != -1; j = hand.next(j)) {
+				writeVarint(out, zigzag(hand.getStart(j) - start));
+				writeVarint(out, hand.getEnd(j) - hand.getStart(j));
+				start = hand.getStart(j);
+			}
+		}
+
+		final BottomKSketch sketch = handprint.getSketch();
+		final long[] values = sketch.getValues();
+		writeVarint(out, sketch.getK());
+		writeVarint(out, values.length);
+		long value = Long.MIN_VALUE;
+		for (long v : values) {
+			writeVarint(out, v - value);
+			value = v;
+		}
+	}
+
+	private static Handprint read(Source in) throws IOException {
+		final long palm = in.readLong();
+
+		final int fingers = readCount(in);
+		if (fingers > MAX_HAND_SIZE)
+			throw new IOException("Corrupt handprint hand");
+		final LongIntervalTopK hand = new LongIntervalTopK(fingers);
+		long fingerprint = 0;
+		for (int i = 0; i < fingers; i++) {
+			fingerprint = (i == 0) ? readVarint(in) : fingerprint - readVarint(in);
+			final int intervals = readCount(in);
+			long start = 0;
+			for (int j = 0; j < intervals; j++) {
+				start += unzigzag(readVarint(in));
+				final long length = readVarint(in);
+				if (length < 0 || start + length < start)
+					throw new IOException("Corrupt handprint interval");
+				hand.offer(fingerprint, start, start + length);
+			}
+		}
+
+		final int k = readCount(in);
+		final int count = readCount(in);
+		if (k < 1 || k > MAX_SKETCH_SIZE || count > k)
+			throw new IOException("Corrupt handprint sketch");
+		final long[] values = new long[count];
+		long value = Long.MIN_VALUE;
+		for (int i = 0; i < values.length; i++) {
+			value += readVarint(in);
+			values[i] = value;
+		}
+		return new Handprint(palm, hand, new BottomKSketch(k, values));
+	}
+
+	private static void writeBytes(Sink out, byte[] bytes) throws IOException {
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(Source in) throws IOException {
+		final int length = readCount(in);
+		if (length > MAX_HEADER_BYTES)
+			throw new IOException("Corrupt handprint header");
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Writes the value as unsigned, seven bits a byte, low bits first, with
+	 * the high bit set on all bytes but the last.
+	 */
+	private static void writeVarint(Sink out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarint(Source in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				// the tenth byte only holds the top bit
+				if (shift == 63 && b > 1)
+					break;
+				return value;
+			}
+		}
+		throw new IOException("Corrupt handprint varint");
+	}
+
+	private static int readCount(Source in) throws IOException {
+		final long count = readVarint(in);
+		if (count < 0 || count > Integer.MAX_VALUE)
+			throw new IOException("Corrupt handprint count " + count);
+		return (int) count;
+	}
+
+	/**
+	 * Maps signed values to unsigned ones, small magnitudes to small values.
+	 */
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Where handprints are written to, so that streams and buffers can share
+	 * the encoder.
+	 */
+	private static abstract class Sink {
+		abstract void writeByte(int b) throws IOException;
+
+		abstract void writeInt(int v) throws IOException;
+
+		abstract void writeLong(long v) throws IOException;
+
+		abstract void write(byte[] bytes) throws IOException;
+	}
+
+	private static class DataOutputSink extends Sink {
+		private final DataOutput out;
+
+		DataOutputSink(DataOutput out) {
+			this.out = out;
+		}
+
+		@Override
+		void writeByte(int b) throws IOException {
+			out.writeByte(b);
+		}
+
+		@Override
+		void writeInt(int v) throws IOException {
+			out.writeInt(v);
+		}
+
+		@Override
+		void writeLong(long v) throws IOException {
+			out.writeLong(v);
+		}
+
+		@Override
+		void write(byte[] bytes) throws IOException {
+			out.write(bytes);
+		}
+	}
+
+	private static class BufferSink extends Sink {
+		private final ByteBuffer buffer;
+		private final boolean bigEndian;
+
+		BufferSink(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+		}
+
+		@Override
+		void writeByte(int b) {
+			buffer.put((byte) b);
+		}
+
+		@Override
+		void writeInt(int v) {
+			buffer.putInt(bigEndian ? v : Integer.reverseBytes(v));
+		}
+
+		@Override
+		void writeLong(long v) {
+			buffer.putLong(bigEndian ? v : Long.reverseBytes(v));
+		}
+
+		@Override
+		void write(byte[] bytes) {
+			buffer.put(bytes);
+		}
+	}
+
+	private static class CountingSink extends Sink {
+		private int count = 0;
+
+		@Override
+		void writeByte(int b) {
+			count++;
+		}
+
+		@Override
+		void writeInt(int v) {
+			count += 4;
+		}
+
+		@Override
+		void writeLong(long v) {
+			count += 8;
+		}
+
+		@Override
+		void write(byte[] bytes) {
+			count += bytes.length;
+		}
+	}
+
+	/**
+	 * Where handprints are read from.
+	 */
+	private static abstract class Source {
+		abstract int readByte() throws IOException;
+
+		abstract int readInt() throws IOException;
+
+		abstract long readLong() throws IOException;
+
+		abstract void readFully(byte[] bytes) throws IOException;
+	}
+
+	private static class DataInputSource extends Source {
+		private final DataInput in;
+
+		DataInputSource(DataInput in) {
+			this.in = in;
+		}
+
+		@Override
+		int readByte() throws IOException {
+			return in.readByte();
+		}
+
+		@Override
+		int readInt() throws IOException {
+			return in.readInt();
+		}
+
+		@Override
+		long readLong() throws IOException {
+			return in.readLong();
+		}
+
+		@Override
+		void readFully(byte[] bytes) throws IOException {
+			in.readFully(bytes);
+		}
+	}
+
+	private static class BufferSource extends Source {
+		private final ByteBuffer buffer;
+		private final boolean bigEndian;
+
+		BufferSource(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+		}
+
+		private void require(int bytes) throws EOFException {
+			if (buffer.remaining() < bytes)
+				throw new EOFException("Handprint truncated");
+		}
+
+		@Override
+		int readByte() throws EOFException {
+			require(1);
+			return buffer.get();
+		}
+
+		@Override
+		int readInt() throws EOFException {
+			require(4);
+			final int v = buffer.getInt();
+			return bigEndian ? v : Integer.reverseBytes(v);
+		}
+
+		@Override
+		long readLong() throws EOFException {
+			require(8);
+			final long v = buffer.getLong();
+			return bigEndian ? v : Long.reverseBytes(v);
+		}
+
+		@Override
+		void readFully(byte[] bytes) throws EOFException {
+			require(bytes.length);
+			buffer.get(bytes);
+		}
+	}
+}
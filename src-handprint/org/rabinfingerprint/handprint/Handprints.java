@@ -1,8 +1,13 @@
 package org.rabinfingerprint.handprint;
 
+import java.io.File;
 import java.io.InputStream;
 
 import org.rabinfingerprint.handprint.FingerFactory.ByteMaskBoundaryDetectoryStrategy;
+import org.rabinfingerprint.handprint.FingerFactory.ChunkSizes;
+import org.rabinfingerprint.handprint.FingerFactory.ChunkingEngine;
+import org.rabinfingerprint.handprint.FingerFactory.GearChunkingEngine;
+import org.rabinfingerprint.handprint.FingerFactory.RabinChunkingEngine;
 import org.rabinfingerprint.polynomial.Polynomial;
 
 public class Handprints {
@@ -20,9 +25,15 @@ public class Handprints {
 	public static class HandPrintFactory {
 		private final Polynomial p;
 		private int fingersPerHand = 10;
+		private int sketchSize = Handprint.DEFAULT_SKETCH_SIZE;
 		private long bytesPerWindow = 8;
 		private long chunkBoundaryMask = 0xFFF;
 		private long chunkPattern = 0xABC;
+		private boolean gearChunking = false;
+		private int minChunkBytes = 1;
+		private int maxChunkBytes = Integer.MAX_VALUE;
+		private int normalizationLevel = 0;
+		private boolean keepAllFingers = true;
 
 		public HandPrintFactory(Polynomial p) {
 			this.p = p;
@@ -43,11 +54,117 @@ public class Handprints {
 			return this;
 		}
 		
+		/**
+		 * Finds chunk boundaries with a Gear hash instead of a windowed Rabin
+		 * fingerprint. The window size is then ignored, and the boundary mask
+		 * and pattern are moved up to the high bits of the hash.
+		 */
+		public HandPrintFactory gearChunking(boolean gearChunking) {
+			this.gearChunking = gearChunking;
+			return this;
+		}
+
+		/**
+		 * Skips boundary detection in the first minChunkBytes of each chunk.
+		 */
+		public HandPrintFactory minChunkBytes(int minChunkBytes) {
+			this.minChunkBytes = minChunkBytes;
+			return this;
+		}
+
+		/**
+		 * Cuts a chunk at maxChunkBytes if no boundary was found before.
+		 */
+		public HandPrintFactory maxChunkBytes(int maxChunkBytes) {
+			this.maxChunkBytes = maxChunkBytes;
+			return this;
+		}
+
+		/**
+		 * Uses a boundary mask with level more bits until a chunk reaches the
+		 * normal size (the minimum plus the expected chunk size of the regular
+		 * mask), and one with level fewer bits after that. This works best
+		 * with masks of contiguous low bits like the default. Zero turns it
+		 * off.
+		 */
+		public HandPrintFactory normalizedChunking(int level) {
+			this.normalizationLevel = level;
+			return this;
+		}
+
+		/**
+		 * The number of fingerprints in the sketch similarities are estimated
+		 * from. The error of the estimates is about 1 / sqrt(sketchSize).
+		 */
+		public HandPrintFactory sketchSize(int sketchSize) {
+			this.sketchSize = sketchSize;
+			return this;
+		}
+
+		/**
+		 * Turned off, only the palm, the hand and the sketch of each handprint
+		 * are kept rather than all of its fingers, which bounds the memory used
+		 * per stream. Such handprints can only estimate similarities.
+		 */
+		public HandPrintFactory keepAllFingers(boolean keepAllFingers) {
+			this.keepAllFingers = keepAllFingers;
+			return this;
+		}
+
+		public Polynomial getPolynomial() {
+			return p;
+		}
+
+		/**
+		 * Describes the polynomial and every setting the palms, hands and
+		 * sketches of the handprints depend on, so that handprints made with
+		 * different ones can be told apart.
+		 */
+		public String getParameters() {
+			return "p=" + p.toHexString() + ", fingersPerHand=" + fingersPerHand + ", sketchSize=" + sketchSize
+					+ ", bytesPerWindow=" + bytesPerWindow + ", chunkBoundaryMask=" + Long.toHexString(chunkBoundaryMask)
+					+ ", chunkPattern=" + Long.toHexString(chunkPattern) + ", gearChunking=" + gearChunking
+					+ ", minChunkBytes=" + minChunkBytes + ", maxChunkBytes=" + maxChunkBytes
+					+ ", normalizationLevel=" + normalizationLevel;
+		}
+
 		public Handprint newHandprint(InputStream is){
-			return new Handprint(is,
-					fingersPerHand,
-							new FingerFactory(p, bytesPerWindow,
-									new ByteMaskBoundaryDetectoryStrategy(chunkBoundaryMask, chunkPattern)));
+			return new Handprint(is, fingersPerHand, sketchSize, keepAllFingers, newFingerFactory());
+		}
+
+		/**
+		 * Returns a handprint of the file, which is only opened while the
+		 * handprint is computed.
+		 */
+		public Handprint newHandprint(File file) {
+			return new Handprint(file, fingersPerHand, sketchSize, keepAllFingers, newFingerFactory());
+		}
+
+		/**
+		 * Returns the finger factory the handprints are chunked with.
+		 */
+		public FingerFactory newFingerFactory() {
+			long mask = chunkBoundaryMask;
+			long strictMask = mask | (mask << normalizationLevel);
+			long looseMask = mask >>> normalizationLevel;
+
+			final ChunkingEngine engine;
+			int shift = 0;
+			if (gearChunking) {
+				engine = new GearChunkingEngine();
+				shift = Long.numberOfLeadingZeros(strictMask);
+			} else {
+				engine = new RabinChunkingEngine(p, bytesPerWindow);
+			}
+			if (normalizationLevel == 0) {
+				return new FingerFactory(p, engine, new ByteMaskBoundaryDetectoryStrategy(mask << shift,
+						chunkPattern << shift), new ChunkSizes(minChunkBytes, maxChunkBytes));
+			}
+			final int normalChunkBytes = (int) Math.min(maxChunkBytes, minChunkBytes + mask + 1);
+			return new FingerFactory(p, engine,
+					new ByteMaskBoundaryDetectoryStrategy(looseMask << shift, (chunkPattern & looseMask) << shift),
+					new ChunkSizes(minChunkBytes, normalChunkBytes, maxChunkBytes,
+							new ByteMaskBoundaryDetectoryStrategy(strictMask << shift, chunkPattern << shift)));
 		}
 	}
 }
@@ -0,0 +1,220 @@
+package org.rabinfingerprint.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.rabinfingerprint.handprint.Handprint;
+import org.rabinfingerprint.handprint.HandprintCodec;
+import org.rabinfingerprint.handprint.HandprintCodec.Header;
+import org.rabinfingerprint.handprint.Handprints.HandPrintFactory;
+import org.rabinfingerprint.handprint.Handprints.HandprintException;
+import org.rabinfingerprint.polynomial.Polynomial;
+
+/**
+ * Keeps the palm, hand and sketch of each file's handprint in a cache file
+ * between runs, so that files unchanged since are not read again.
+ *
+ * Entries are keyed by canonical path, and only used while the file still has
+ * the size and modification time it had when it was handprinted. The cache
+ * file records the parameters of the factory it was built with, and a cache
+ * built with different ones is started afresh. A file modified within
+ * {@link #RACY_MILLIS} of being handprinted is not saved, as a later change
+ * might not show in its modification time.
+ *
+ * <pre>
+ * HandprintCache cache = new HandprintCache(cacheFile, factory);
+ * Handprint hand = cache.getHandprint(file);
+ * ...
+ * cache.save();
+ * </pre>
+ *
+ * Handprints of files not in the cache are computed lazily by the factory as
+ * usual, and saving computes those that were not used. Not thread safe.
+ */
+public class HandprintCache {
+	private static final int MAGIC = 0x52464843; // RFHC
+	private static final int VERSION = 2;
+
+	/** the modification time granularity of common file systems */
+	public static final long RACY_MILLIS = 2000;
+
+	private static final class Entry {
+		private final long size;
+		private final long modified;
+		private final long checked;
+		private final Handprint handprint;
+		private boolean used = false;
+
+		private Entry(long size, long modified, long checked, Handprint handprint) {
+			this.size = size;
+			this.modified = modified;
+			this.checked = checked;
+			this.handprint = handprint;
+		}
+	}
+
+	private final File cacheFile;
+	private final HandPrintFactory factory;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * Loads the cache file if there is one built with the same parameters as
+	 * the factory. An unreadable cache file is treated as empty and replaced
+	 * on saving.
+	 */
+	public HandprintCache(File cacheFile, HandPrintFactory factory) {
+		this.cacheFile = cacheFile;
+		this.factory = factory;
+		if (cacheFile.isFile()) {
+			try {
+				load();
+			} catch (IOException e) {
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the polynomial the cache file was built with, or null if there
+	 * is no readable cache file. Handprints are only reused with it.
+	 */
+	public static Polynomial readPolynomial(File cacheFile) {
+		if (!cacheFile.isFile())
+			return null;
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+			try {
+				return readHeader(in).getPolynomial();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static Header readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IOException("Not a handprint cache");
+		return HandprintCodec.readHeader(in);
+	}
+
+	private void load() throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+		try {
+			if (!readHeader(in).matches(factory))
+				return;
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String path = in.readUTF();
+				final long size = in.readLong();
+				final long modified = in.readLong();
+				final long checked = in.readLong();
+				entries.put(path, new Entry(size, modified, checked, HandprintCodec.read(in)));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the cached handprint of the file if it is unchanged, or a new one
+	 * from the factory otherwise.
+	 */
+	public Handprint getHandprint(File file) throws IOException {
+		final String path = file.getCanonicalPath();
+		final long checked = System.currentTimeMillis();
+		final long size = file.length();
+		final long modified = file.lastModified();
+
+		Entry entry = entries.get(path);
+		if (entry != null && entry.size == size && entry.modified == modified) {
+			hits++;
+		} else {
+			misses++;
+			entry = new Entry(size, modified, checked, factory.newHandprint(file));
+			entries.put(path, entry);
+		}
+		entry.used = true;
+		return entry.handprint;
+	}
+
+	/**
+	 * Returns the number of handprints returned from the cache.
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of handprints that had to be computed.
+	 */
+	public int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of files cached.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Writes the cache file, computing the handprints not computed yet. Files
+	 * that no longer exist are dropped, as are those that could not be read.
+	 */
+	public void save() throws IOException {
+		final Map<String, Entry> saved = new LinkedHashMap<String, Entry>();
+		for (Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry<String, Entry> e = i.next();
+			final Entry entry = e.getValue();
+			if (!entry.used && !new File(e.getKey()).isFile()) {
+				i.remove();
+				continue;
+			}
+			try {
+				entry.handprint.getSketch();
+			} catch (HandprintException ex) {
+				i.remove();
+				continue;
+			}
+			if (entry.checked - entry.modified >= RACY_MILLIS) {
+				saved.put(e.getKey(), entry);
+			}
+		}
+
+		final File temp = new File(cacheFile.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			HandprintCodec.writeHeader(factory, out);
+			out.writeInt(saved.size());
+			for (Map.Entry<String, Entry> e : saved.entrySet()) {
+				final Entry entry = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(entry.size);
+				out.writeLong(entry.modified);
+				out.writeLong(entry.checked);
+				HandprintCodec.write(entry.handprint, out);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
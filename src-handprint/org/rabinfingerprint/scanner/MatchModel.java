@@ -2,15 +2,26 @@ package org.rabinfingerprint.scanner;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
+import org.rabinfingerprint.datastructures.FingerprintIndex;
+import org.rabinfingerprint.datastructures.FingerprintIndexWriter;
+import org.rabinfingerprint.datastructures.MinHashLshIndex;
+import org.rabinfingerprint.handprint.FingerFactory;
+import org.rabinfingerprint.handprint.FingerFactory.FingerVisitor;
 import org.rabinfingerprint.handprint.Handprint;
 import org.rabinfingerprint.handprint.Handprints;
 import org.rabinfingerprint.handprint.Handprints.HandPrintFactory;
@@ -58,7 +69,7 @@ public class MatchModel {
 		@Override
 		public double getSimilarity() {
 			if (similarity == null)
-				similarity = a.getSimilarity(b);
+				similarity = a.estimateSimilarity(b);
 			return similarity;
 		}
 	}
@@ -74,17 +85,56 @@ public class MatchModel {
 		}
 	}
 
+	/** the number of sketch values the index of partial matches bands */
+	private static final int SIGNATURE_SIZE = 64;
+
 	protected List<Match> matches = new ArrayList<Match>();
+	protected double partialMatchThreshold = 0.5;
+	protected File cacheFile;
+
+	/**
+	 * Sets the Jaccard similarity around which files are found as partial
+	 * matches. Lower thresholds find more of the less similar files, at the
+	 * cost of comparing each file to more candidates.
+	 */
+	public void setPartialMatchThreshold(double partialMatchThreshold) {
+		this.partialMatchThreshold = partialMatchThreshold;
+	}
 
-	public void getMatches(String pathA, String pathB) throws FileNotFoundException {
-		final Polynomial p = Polynomial.createIrreducible(53);
+	/**
+	 * Keeps the handprints of the files matched in the cache file, so that the
+	 * files unchanged since the last match are not read again.
+	 */
+	public void setCacheFile(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
 
-		Collection<Handprint> handsA = getHandsFromPath(p, pathA);
-		Collection<Handprint> handsB = getHandsFromPath(p, pathB);
+	/**
+	 * Matches with a random polynomial, or the one the cache file was built
+	 * with if there is one.
+	 */
+	public void getMatches(String pathA, String pathB) throws IOException {
+		Polynomial p = (cacheFile != null) ? HandprintCache.readPolynomial(cacheFile) : null;
+		getMatches(pathA, pathB, (p != null) ? p : Polynomial.createIrreducible(53));
+	}
+
+	public void getMatches(String pathA, String pathB, Polynomial p) throws IOException {
+		HandPrintFactory factory = Handprints.newFactory(p).keepAllFingers(false);
+		HandprintCache cache = (cacheFile != null) ? new HandprintCache(cacheFile, factory) : null;
+		Collection<Handprint> handsA = getHandsFromPath(factory, cache, pathA);
+		Collection<Handprint> handsB = getHandsFromPath(factory, cache, pathB);
+		if (cache != null) {
+			System.out.println("found " + cache.getHits() + " of " + (cache.getHits() + cache.getMisses())
+					+ " files in cache");
+		}
 
 		findExactMatches(handsA, handsB);
 		findPartialMatches(handsA, handsB);
 		findNonMatches(handsA, handsB);
+
+		if (cache != null) {
+			cache.save();
+		}
 	}
 
 	private void findExactMatches(Collection<Handprint> handsA, Collection<Handprint> handsB) {
@@ -162,57 +212,72 @@ public class MatchModel {
 	private void findPartialMatches(Collection<Handprint> handsA, Collection<Handprint> handsB) {
 		System.out.println("handprinting " + (handsA.size() + handsB.size()) + " files");
 
-		// build all fingers
-		TreeMap<Long, Handprint> handMapA = new TreeMap<Long, Handprint>();
-		TreeMap<Long, Handprint> handMapB = new TreeMap<Long, Handprint>();
+		// build all sketches
+		handprintTasks(handsA, handsB);
 
-		handprintTasks(handsA, handsB, handMapA, handMapB);
+		// index B, so that each file of A is only compared to the files of B
+		// likely to be similar to it
+		MinHashLshIndex index = MinHashLshIndex.forThreshold(partialMatchThreshold, SIGNATURE_SIZE);
+		List<Handprint> indexed = new ArrayList<Handprint>();
+		for (Handprint hand : handsB) {
+			// ids are handed out in order
+			index.add(hand.getSketch().getSignature(SIGNATURE_SIZE));
+			indexed.add(hand);
+		}
 
-		// print intersection
-		List<Long> fingersA = new ArrayList<Long>(handMapA.keySet());
-		for (Long finger : fingersA) {
-			if (handMapB.containsKey(finger)) {
-				Handprint matchA = handMapA.get(finger);
-				Handprint matchB = handMapB.get(finger);
+		// print best candidates, removing the matched handprints afterwards in
+		// a single pass over each list
+		Set<Handprint> matchedA = Collections.newSetFromMap(new IdentityHashMap<Handprint, Boolean>());
+		Set<Handprint> matchedB = Collections.newSetFromMap(new IdentityHashMap<Handprint, Boolean>());
+		for (Handprint matchA : handsA) {
+			int bestId = -1;
+			double bestSimilarity = 0.0;
+			for (int id : index.query(matchA.getSketch().getSignature(SIGNATURE_SIZE))) {
+				double similarity = matchA.estimateSimilarity(indexed.get(id));
+				if (similarity > bestSimilarity) {
+					bestId = id;
+					bestSimilarity = similarity;
+				}
+			}
+			if (bestId == -1)
+				continue;
+			Handprint matchB = indexed.get(bestId);
 
-				// found partial match
-				handsA.remove(matchA);
-				handsB.remove(matchB);
+			// found partial match
+			matchedA.add(matchA);
+			matchedB.add(matchB);
+			index.remove(bestId);
 
-				matches.add(new PartialMatch(matchA, matchB));
+			matches.add(new PartialMatch(matchA, matchB));
 
-				StringBuffer str = new StringBuffer();
-				str.append("Found partial match between ");
-				//str.append(matchA.getFile().toString());
-				str.append(" and ");
-				//str.append(matchB.getFile().toString());
-				str.append(" with similarity " + (100.0 * matchA.getSimilarity(matchB)));
-				System.out.println(str.toString());
-			}
+			StringBuffer str = new StringBuffer();
+			str.append("Found partial match between ");
+			//str.append(matchA.getFile().toString());
+			str.append(" and ");
+			//str.append(matchB.getFile().toString());
+			str.append(" with similarity " + (100.0 * bestSimilarity));
+			System.out.println(str.toString());
 		}
+		handsA.removeAll(matchedA);
+		handsB.removeAll(matchedB);
 	}
 
-	private void handprintTasks(Collection<Handprint> handsA, Collection<Handprint> handsB,
-			TreeMap<Long, Handprint> handMapA, TreeMap<Long, Handprint> handMapB) {
+	private void handprintTasks(Collection<Handprint> handsA, Collection<Handprint> handsB) {
 
 		final CountDownLatch doneSignal = new CountDownLatch(2);
 		final ExecutorService executor = Executors.newFixedThreadPool(2);
 
 		final class HandRunnable implements Runnable {
 			private final Collection<Handprint> hands;
-			private final TreeMap<Long, Handprint> map;
 
-			public HandRunnable(Collection<Handprint> hands, TreeMap<Long, Handprint> map) {
+			public HandRunnable(Collection<Handprint> hands) {
 				super();
 				this.hands = hands;
-				this.map = map;
 			}
 
 			public void run() {
 				for (Handprint hand : hands) {
-					for (Long finger : hand.getHandFingers().keySet()) {
-						map.put(finger, hand);
-					}
+					hand.getSketch();
 					System.out.print(".");
 					System.out.flush();
 				}
@@ -220,8 +285,8 @@ public class MatchModel {
 			}
 		}
 
-		executor.execute(new HandRunnable(handsA, handMapA));
-		executor.execute(new HandRunnable(handsB, handMapB));
+		executor.execute(new HandRunnable(handsA));
+		executor.execute(new HandRunnable(handsB));
 
 		try {
 			doneSignal.await(); // wait for all to finish
@@ -250,16 +315,72 @@ public class MatchModel {
 		}
 	}
 
-	private static Collection<Handprint> getHandsFromPath(final Polynomial p, final String path)
-			throws FileNotFoundException {
+	/**
+	 * Chunks every file under the path like the handprints are, and writes
+	 * which files contain which chunks to an index that
+	 * {@link FingerprintIndex} can open. The files are registered under their
+	 * paths.
+	 */
+	public static void writeIndex(String path, File indexFile, Polynomial p) throws IOException {
+		writeIndex(path, new FingerprintIndexWriter(indexFile), p);
+	}
+
+	/**
+	 * Chunks every file under the path into the writer, closing it once all
+	 * the files are read. If one cannot be read the writer is aborted, so that
+	 * no index of only some of the files is written.
+	 */
+	public static void writeIndex(String path, final FingerprintIndexWriter writer, Polynomial p)
+			throws IOException {
+		final FingerFactory factory = Handprints.newFactory(p).newFingerFactory();
+		final ForkJoinPool pool = new ForkJoinPool();
+		boolean walked = false;
+		try {
+			for (File file : FileListing.getFileListing(new File(path))) {
+				if (!file.isFile())
+					continue;
+				final int fileId = writer.addFile(file.getPath());
+				final FileChannel channel = new FileInputStream(file).getChannel();
+				try {
+					factory.visitFingers(channel, pool, FingerFactory.SEGMENT_BYTES, new FingerVisitor() {
+						@Override
+						public void visit(long fingerprint, long start, long end) {
+							try {
+								writer.add(fingerprint, fileId, start, end);
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						}
+					});
+				} finally {
+					channel.close();
+				}
+			}
+			walked = true;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+			if (!walked) {
+				writer.abort();
+			}
+		}
+		writer.close();
+	}
+
+	private static Collection<Handprint> getHandsFromPath(final HandPrintFactory factory,
+			final HandprintCache cache, final String path) throws IOException {
 		File dir = new File(path);
 		List<File> files = FileListing.getFileListing(dir);
 		List<Handprint> hands = new ArrayList<Handprint>();
-		HandPrintFactory factory = Handprints.newFactory(p);
 		for (File file : files) {
 			if (!file.isFile())
 				continue;
-			hands.add(factory.newHandprint(new FileInputStream(file)));
+			if (cache != null) {
+				hands.add(cache.getHandprint(file));
+			} else {
+				hands.add(factory.newHandprint(file));
+			}
 		}
 
 		return hands;
@@ -2,6 +2,7 @@ package org.rabinfingerprint.scanner;
 
 import java.io.File;
 
+import org.rabinfingerprint.fingerprint.Fingerprint.LongWindowedFingerprint;
 import org.rabinfingerprint.fingerprint.RabinFingerprintLongWindowed;
 import org.rabinfingerprint.polynomial.Polynomial;
 
@@ -13,10 +14,24 @@ public class StringFinder {
 	private final RabinFingerprintLongWindowed rabin;
 
 	public StringFinder(String target) {
-		this.polynomial = Polynomial.createIrreducible(53);
+		this(target, Polynomial.createIrreducible(53));
+	}
+
+	/**
+	 * Uses the given polynomial, e.g. one created from a seeded source with
+	 * {@link Polynomial#createIrreducible(int, java.util.Random)}, so that
+	 * fingerprints are reproducible. An empty target is never found.
+	 */
+	public StringFinder(String target, Polynomial polynomial) {
+		this.polynomial = polynomial;
 		this.target = target;
 
-		// calculate target fingerprint
+		// calculate target fingerprint. an empty target has no window
+		if (target.isEmpty()) {
+			this.rabin = null;
+			this.targetFingerprint = 0;
+			return;
+		}
 		this.rabin = new RabinFingerprintLongWindowed(polynomial, target.length());
 		rabin.pushBytes(target.getBytes());
 		this.targetFingerprint = rabin.getFingerprintLong();
@@ -26,24 +41,38 @@ public class StringFinder {
 		return new StringMatcher(string);
 	}
 
+	/** the number of window fingerprints computed per pass */
+	private static final int BLOCK_BYTES = 1 << 12;
+
 	public final class StringMatcher {
-		private final RabinFingerprintLongWindowed localRabin;
+		private final LongWindowedFingerprint<Polynomial> localRabin;
 		private final String string;
 		private final byte[] bytes;
+		private final long[] fingerprints;
+		private int blockStart = 0;
+		private int blockEnd = 0;
 		private int offset = 0;
 		private int start = -1;
 		private int end = -1;
 
 		private StringMatcher(String string) {
-			this.localRabin = new RabinFingerprintLongWindowed(rabin);
+			this.localRabin = (rabin == null) ? null : new RabinFingerprintLongWindowed(rabin);
 			this.string = string;
 			this.bytes = string.getBytes();
+			this.fingerprints = new long[Math.min(BLOCK_BYTES, bytes.length)];
 		}
 
 		public boolean find() {
+			if (localRabin == null)
+				return false;
 			for (; offset < bytes.length; offset++) {
-				localRabin.pushByte(bytes[offset]);
-				if (localRabin.getFingerprintLong() == targetFingerprint) {
+				// fingerprint the next block of windows once this one is used up
+				if (offset == blockEnd) {
+					blockStart = offset;
+					blockEnd = Math.min(bytes.length, offset + fingerprints.length);
+					localRabin.pushBytes(bytes, blockStart, blockEnd - blockStart, fingerprints);
+				}
+				if (fingerprints[offset - blockStart] == targetFingerprint) {
 					final int i0 = offset - target.length() + 1;
 					final int i1 = offset + 1;
 					if (i0 < 0 || i1 >= string.length()) continue;
@@ -51,6 +80,7 @@ public class StringFinder {
 					if (substring.equals(target)) {
 						start = i0;
 						end = i1;
+						offset++;
 						return true;
 					}
 				}
@@ -1,15 +1,67 @@
 package org.rabinfingerprint.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.TestCase;
 
+import org.rabinfingerprint.datastructures.BottomKSketch;
+import org.rabinfingerprint.datastructures.FingerprintIndex;
+import org.rabinfingerprint.datastructures.FingerprintIndex.PostingVisitor;
+import org.rabinfingerprint.datastructures.FingerprintIndexWriter;
+import org.rabinfingerprint.datastructures.Interval;
+import org.rabinfingerprint.datastructures.LongIntervalMultimap;
+import org.rabinfingerprint.datastructures.LongIntervalTopK;
+import org.rabinfingerprint.datastructures.MinHashLshIndex;
+import org.rabinfingerprint.fingerprint.RabinFingerprintLong;
+import org.rabinfingerprint.fingerprint.RabinFingerprintLongWindowed;
+import org.rabinfingerprint.handprint.FingerFactory;
+import org.rabinfingerprint.handprint.FingerFactory.ByteMaskBoundaryDetectoryStrategy;
+import org.rabinfingerprint.handprint.FingerFactory.ChunkSizes;
+import org.rabinfingerprint.handprint.FingerFactory.FingerVisitor;
+import org.rabinfingerprint.handprint.FingerFactory.GearChunkingEngine;
+import org.rabinfingerprint.handprint.FingerFactory.RabinChunkingEngine;
 import org.rabinfingerprint.handprint.Handprint;
+import org.rabinfingerprint.handprint.HandprintCodec;
+import org.rabinfingerprint.handprint.HandprintCodec.Header;
 import org.rabinfingerprint.handprint.Handprints;
 import org.rabinfingerprint.handprint.Handprints.HandPrintFactory;
 import org.rabinfingerprint.polynomial.Polynomial;
+import org.rabinfingerprint.scanner.HandprintCache;
+import org.rabinfingerprint.scanner.MatchModel;
+import org.rabinfingerprint.scanner.StringFinder;
+import org.rabinfingerprint.scanner.StringFinder.StringMatcher;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 
 public class HandprintTest extends TestCase {
 	public void testChunkingFiles() throws IOException {
@@ -35,4 +87,833 @@ public class HandprintTest extends TestCase {
 		assertTrue(Math.abs(0.00 - hand1.getSimilarity(hand6)) < 0.05);
 		assertTrue(Math.abs(0.00 - hand1.getSimilarity(hand7)) < 0.05);
 	}
+
+	public void testGearChunkingParity() throws IOException {
+		Polynomial p = Polynomial.createIrreducible(53);
+		HandPrintFactory rabinFactory = Handprints.newFactory(p);
+		HandPrintFactory gearFactory = Handprints.newFactory(p).gearChunking(true);
+
+		List<InputStream> sims = TestDataGenerator.getSimilarRandomBytes(2);
+		List<InputStream> diffs = TestDataGenerator.getDifferentRandomBytes(1);
+		double rabinSimilarity = rabinFactory.newHandprint(sims.get(0)).getSimilarity(
+				rabinFactory.newHandprint(sims.get(1)));
+
+		Handprint gear1 = gearFactory.newHandprint(sims.get(0));
+		Handprint gear2 = gearFactory.newHandprint(sims.get(1));
+		Handprint gear3 = gearFactory.newHandprint(diffs.get(0));
+
+		// chunk counts and similarities should be in line with rabin chunking
+		int expectedFingers = TestDataGenerator.TEST_RESOURCE_BYTES / 0x1000;
+		assertTrue(Math.abs(expectedFingers - gear1.getFingerCount()) < expectedFingers / 10);
+		assertTrue(Math.abs(rabinSimilarity - gear1.getSimilarity(gear2)) < 0.05);
+		assertTrue(Math.abs(0.00 - gear1.getSimilarity(gear3)) < 0.05);
+	}
+
+	public void testChunkSizes() throws IOException {
+		Polynomial p = Polynomial.createIrreducible(53);
+		final int minChunkBytes = 1024;
+		final int maxChunkBytes = 8192;
+		final int bytesPerWindow = 48;
+		ByteMaskBoundaryDetectoryStrategy detector = new ByteMaskBoundaryDetectoryStrategy(0xFFF, 0xABC);
+		FingerFactory factory = new FingerFactory(p, new RabinChunkingEngine(p, bytesPerWindow), detector,
+				new ChunkSizes(minChunkBytes, maxChunkBytes));
+
+		InputStream is = TestDataGenerator.getDifferentRandomBytes(1).get(0);
+		byte[] bytes = ByteStreams.toByteArray(is);
+		List<Interval> intervals = Lists.newArrayList(factory.getAllFingers(is).values());
+		Collections.sort(intervals);
+
+		// the skip-ahead chunker cuts exactly where a plain scan would
+		RabinFingerprintLongWindowed window = new RabinFingerprintLongWindowed(p, bytesPerWindow);
+		List<Interval> expected = Lists.newArrayList();
+		int chunkStart = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			window.pushByte(bytes[i]);
+			int size = i + 1 - chunkStart;
+			if ((size >= minChunkBytes && detector.isBoundary(window.getFingerprintLong())) || size == maxChunkBytes) {
+				expected.add(new Interval((long) chunkStart, (long) i + 1));
+				chunkStart = i + 1;
+			}
+		}
+		if (chunkStart < bytes.length) {
+			expected.add(new Interval((long) chunkStart, (long) bytes.length));
+		}
+		assertEquals(expected, intervals);
+
+		// normalized chunking keeps the sizes in bounds and similar files similar
+		HandPrintFactory normalized = Handprints.newFactory(p).minChunkBytes(minChunkBytes)
+				.maxChunkBytes(maxChunkBytes).normalizedChunking(2);
+		List<InputStream> sims = TestDataGenerator.getSimilarRandomBytes(2);
+		Handprint hand1 = normalized.newHandprint(sims.get(0));
+		Handprint hand2 = normalized.newHandprint(sims.get(1));
+		for (Interval interval : hand1.getAllFingers().values()) {
+			long size = interval.getEnd() - interval.getStart();
+			assertTrue(size <= maxChunkBytes);
+			assertTrue(size >= minChunkBytes || interval.getEnd() == TestDataGenerator.TEST_RESOURCE_BYTES);
+		}
+		assertTrue(hand1.getSimilarity(hand2) > 0.75);
+	}
+
+	public void testStreamingChunks() throws IOException {
+		Polynomial p = Polynomial.createIrreducible(53);
+		final byte[] bytes = ByteStreams.toByteArray(TestDataGenerator.getDifferentRandomBytes(1).get(0));
+		ByteMaskBoundaryDetectoryStrategy detector = new ByteMaskBoundaryDetectoryStrategy(0xFFF, 0xABC);
+
+		for (ChunkSizes sizes : new ChunkSizes[] { ChunkSizes.UNBOUNDED, new ChunkSizes(1024, 8192),
+				new ChunkSizes(5000, 5000), new ChunkSizes(1, 1 << 22) }) {
+			FingerFactory factory = new FingerFactory(p, new RabinChunkingEngine(p, 48), detector, sizes);
+			Multimap<Long, Interval> expected = factory.getAllFingers(new ByteArrayInputStream(bytes));
+
+			// a stream without mark support that returns short reads
+			final Random random = new Random(42);
+			InputStream trickle = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					return super.read(b, off, Math.min(len, 1 + random.nextInt(100000)));
+				}
+
+				@Override
+				public boolean markSupported() {
+					return false;
+				}
+			};
+			assertEquals(expected, factory.getAllFingers(trickle));
+
+			final Multimap<Long, Interval> visited = ArrayListMultimap.create();
+			long palm = factory.visitFingers(Channels.newChannel(new ByteArrayInputStream(bytes)), new FingerVisitor() {
+				@Override
+				public void visit(long fingerprint, long start, long end) {
+					visited.put(fingerprint, new Interval(start, end));
+				}
+			});
+			assertEquals(expected, visited);
+
+			// the palm falls out of the same pass
+			assertEquals(factory.getPalm(new ByteArrayInputStream(bytes)), palm);
+
+			// the fingers cover the stream and are the fingerprints of their bytes
+			long total = 0;
+			RabinFingerprintLong finger = new RabinFingerprintLong(p);
+			for (Map.Entry<Long, Interval> entry : expected.entries()) {
+				Interval interval = entry.getValue();
+				finger.reset();
+				finger.pushBytes(bytes, interval.getStart().intValue(),
+						(int) (interval.getEnd() - interval.getStart()));
+				assertEquals(finger.getFingerprintLong(), entry.getKey().longValue());
+				total += interval.getEnd() - interval.getStart();
+			}
+			assertEquals(bytes.length, total);
+		}
+
+		// non-blocking channels fail rather than spin
+		FingerFactory factory = new FingerFactory(p, new RabinChunkingEngine(p, 48), detector);
+		FingerVisitor ignore = new FingerVisitor() {
+			@Override
+			public void visit(long fingerprint, long start, long end) {
+			}
+		};
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+		try {
+			factory.visitFingers(pipe.source(), ignore);
+			fail();
+		} catch (IllegalArgumentException e) {
+		} finally {
+			pipe.source().close();
+			pipe.sink().close();
+		}
+		try {
+			factory.visitFingers(new ReadableByteChannel() {
+				@Override
+				public int read(ByteBuffer dst) {
+					return 0;
+				}
+
+				@Override
+				public boolean isOpen() {
+					return true;
+				}
+
+				@Override
+				public void close() {
+				}
+			}, ignore);
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+	public void testParallelChunks() throws IOException {
+		Polynomial p = Polynomial.createIrreducible(53);
+		final byte[] random = ByteStreams.toByteArray(TestDataGenerator.getDifferentRandomBytes(1).get(0));
+
+		// a megabyte of zeros in the middle, which never match the pattern, so
+		// only forced cuts happen there
+		final int half = 1 << 19;
+		final byte[] bytes = new byte[4 * half];
+		System.arraycopy(random, 0, bytes, 0, half);
+		System.arraycopy(random, half, bytes, 3 * half, half);
+		File file = File.createTempFile("chunks", ".bin");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(bytes);
+		out.close();
+
+		ByteMaskBoundaryDetectoryStrategy detector = new ByteMaskBoundaryDetectoryStrategy(0xFFF, 0xABC);
+		ByteMaskBoundaryDetectoryStrategy gearDetector = new ByteMaskBoundaryDetectoryStrategy(0xFFFL << 52,
+				0xABCL << 52);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (ChunkSizes sizes : new ChunkSizes[] { ChunkSizes.UNBOUNDED, new ChunkSizes(1024, 8192),
+					new ChunkSizes(5000, 5000), new ChunkSizes(512, 2048, 65536, detector) }) {
+				FingerFactory[] factories = new FingerFactory[] {
+						new FingerFactory(p, new RabinChunkingEngine(p, 48), detector, sizes),
+						new FingerFactory(p, new GearChunkingEngine(), gearDetector, sizes) };
+				for (FingerFactory factory : factories) {
+					Multimap<Long, Interval> expected = factory.getAllFingers(new ByteArrayInputStream(bytes));
+					assertEquals(expected, factory.getAllFingers(file, pool));
+
+					for (long segmentBytes : new long[] { 4096, 65536, bytes.length }) {
+						final Multimap<Long, Interval> visited = ArrayListMultimap.create();
+						FileChannel channel = new FileInputStream(file).getChannel();
+						long palm = factory.visitFingers(channel, pool, segmentBytes, new FingerVisitor() {
+							@Override
+							public void visit(long fingerprint, long start, long end) {
+								visited.put(fingerprint, new Interval(start, end));
+							}
+						});
+						channel.close();
+						assertEquals(expected, visited);
+						assertEquals(factory.getPalm(new ByteArrayInputStream(bytes)), palm);
+					}
+				}
+			}
+
+			// an empty file is a single empty chunk
+			File empty = File.createTempFile("chunks", ".bin");
+			empty.deleteOnExit();
+			FingerFactory factory = new FingerFactory(p, 48, detector);
+			assertEquals(factory.getAllFingers(new ByteArrayInputStream(new byte[0])),
+					factory.getAllFingers(empty, pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testLongIntervalMultimap() throws IOException {
+		// few enough keys that most have several entries, including zero
+		Random random = new Random(42);
+		LongIntervalMultimap map = new LongIntervalMultimap();
+		Multimap<Long, Interval> expected = ArrayListMultimap.create();
+		for (int i = 0; i < 100000; i++) {
+			long key = random.nextInt(30000) - 15000;
+			long start = random.nextInt(1 << 30);
+			map.put(key, start, start + random.nextInt(1 << 16));
+			expected.put(key, new Interval(map.getStart(i), map.getEnd(i)));
+		}
+		assertEquals(expected, map.toMultimap());
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected.keySet().size(), map.keyCount());
+		assertEquals(expected.keySet().size(), map.keys().length);
+		for (long key = -16000; key < 16000; key++) {
+			assertEquals(expected.containsKey(key), map.containsKey(key));
+			assertEquals(expected.get(key).size(), map.count(key));
+		}
+
+		LongIntervalMultimap other = new LongIntervalMultimap();
+		for (long key = 0; key < 20000; key += 2) {
+			other.put(key, 0, 0);
+		}
+		int intersecting = 0;
+		for (long key : map.keys()) {
+			if (key >= 0 && key % 2 == 0) intersecting++;
+		}
+		assertEquals(intersecting, map.countIntersectingKeys(other));
+		assertEquals(intersecting, other.countIntersectingKeys(map));
+
+		// a handprint holds the same fingers as the factory finds
+		Polynomial p = Polynomial.createIrreducible(53);
+		final byte[] bytes = ByteStreams.toByteArray(TestDataGenerator.getDifferentRandomBytes(1).get(0));
+		FingerFactory factory = new FingerFactory(p, 48, new ByteMaskBoundaryDetectoryStrategy(0xFFF, 0xABC));
+		Handprint hand = new Handprint(new ByteArrayInputStream(bytes), 8, factory);
+		assertEquals(factory.getAllFingers(new ByteArrayInputStream(bytes)), hand.getAllFingers());
+		assertEquals(8, hand.getHandFingers().keySet().size());
+	}
+
+	public void testHandFingers() throws IOException {
+		// few enough keys that most are offered several times
+		Random random = new Random(42);
+		for (int capacity : new int[] { 0, 1, 10, 1000 }) {
+			LongIntervalTopK top = new LongIntervalTopK(capacity);
+			Multimap<Long, Interval> all = ArrayListMultimap.create();
+			for (int i = 0; i < 100000; i++) {
+				long key = random.nextInt(5000) - 2500;
+				long start = random.nextInt(1 << 30);
+				top.offer(key, start, start + 1);
+				all.put(key, new Interval(start, start + 1));
+
+				// reading sorts the heap, which later offers must keep working on
+				if (i % 10000 == 9999) {
+					Multimap<Long, Interval> expected = topFingers(all, capacity);
+					for (long held : top.keys()) {
+						List<Interval> intervals = Lists.newArrayList();
+						for (int j = top.first(held); j != -1; j = top.next(j)) {
+							intervals.add(new Interval(top.getStart(j), top.getEnd(j)));
+						}
+						assertEquals(expected.get(held), intervals);
+						assertEquals(intervals.size(), top.count(held));
+					}
+					assertEquals(-1, top.first(5000));
+				}
+			}
+			assertEquals(topFingers(all, capacity), top.toMultimap());
+			assertEquals(Math.min(capacity, all.keySet().size()), top.keys().length);
+		}
+
+		// a handprint that keeps only its hand selects the same fingers
+		Polynomial p = Polynomial.createIrreducible(53);
+		final byte[] bytes = ByteStreams.toByteArray(TestDataGenerator.getDifferentRandomBytes(1).get(0));
+		FingerFactory factory = new FingerFactory(p, 48, new ByteMaskBoundaryDetectoryStrategy(0xFF, 0xAB));
+		Multimap<Long, Interval> expected = topFingers(factory.getAllFingers(new ByteArrayInputStream(bytes)), 10);
+		Handprint hand = new Handprint(new ByteArrayInputStream(bytes), 10, false, factory);
+		assertEquals(expected, hand.getHandFingers());
+		assertEquals(Long.valueOf(factory.getPalm(new ByteArrayInputStream(bytes))), hand.getPalm());
+		try {
+			hand.getFingerMap();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		Handprint full = new Handprint(new ByteArrayInputStream(bytes), 10, factory);
+		assertEquals(expected, full.getHandFingers());
+	}
+
+	public void testSketch() throws IOException {
+		// A = [0, 10000), B = [5000, 20000)
+		BottomKSketch a = new BottomKSketch(1024);
+		BottomKSketch b = new BottomKSketch(1024);
+		for (long i = 0; i < 20000; i++) {
+			if (i < 10000) a.add(i);
+			if (i >= 5000) b.add(i);
+			a.add(0); // duplicates do not count
+		}
+		assertEquals(0.25, a.estimateJaccard(b), 0.05);
+		assertEquals(0.5, a.estimateContainment(b), 0.05);
+		assertEquals(1.0 / 3, b.estimateContainment(a), 0.05);
+		assertEquals(10000, a.estimateCardinality(), 1000);
+		assertEquals(a.estimateJaccard(b), new BottomKSketch(1024, a.getValues()).estimateJaccard(b));
+
+		// exact while the sets fit
+		BottomKSketch c = new BottomKSketch(1024);
+		BottomKSketch d = new BottomKSketch(1024);
+		for (long i = 0; i < 100; i++) {
+			c.add(i);
+			d.add(i + 50);
+		}
+		assertEquals(50.0 / 150, c.estimateJaccard(d));
+		assertEquals(0.5, c.estimateContainment(d));
+		assertEquals(100.0, c.estimateCardinality());
+		assertEquals(1.0, new BottomKSketch(1).estimateJaccard(new BottomKSketch(1)));
+
+		// similar files, compared without keeping their fingers
+		Polynomial p = Polynomial.createIrreducible(53);
+		HandPrintFactory factory = Handprints.newFactory(p).chunkBoundaryMask(0x3FF).chunkPattern(0x2BC);
+		List<InputStream> sims = TestDataGenerator.getSimilarRandomBytes(2);
+		byte[] bytes1 = ByteStreams.toByteArray(sims.get(0));
+		byte[] bytes2 = ByteStreams.toByteArray(sims.get(1));
+		Handprint hand1 = factory.newHandprint(new ByteArrayInputStream(bytes1));
+		Handprint hand2 = factory.newHandprint(new ByteArrayInputStream(bytes2));
+		Set<Long> keys1 = hand1.getAllFingers().keySet();
+		Set<Long> keys2 = hand2.getAllFingers().keySet();
+		double jaccard = (double) Sets.intersection(keys1, keys2).size() / Sets.union(keys1, keys2).size();
+		double containment = (double) Sets.intersection(keys1, keys2).size() / keys1.size();
+
+		factory.keepAllFingers(false);
+		Handprint sketch1 = factory.newHandprint(new ByteArrayInputStream(bytes1));
+		Handprint sketch2 = factory.newHandprint(new ByteArrayInputStream(bytes2));
+		assertEquals(jaccard, sketch1.estimateSimilarity(sketch2), 0.1);
+		assertEquals(containment, sketch1.estimateContainment(sketch2), 0.1);
+	}
+
+	public void testLshIndex() {
+		Random random = new Random(42);
+		MinHashLshIndex index = MinHashLshIndex.forThreshold(0.5, 64);
+		assertEquals(0.5, index.getThreshold(), 0.05);
+
+		// sets of 1000 random fingerprints, and copies with 10% replaced
+		int sets = 2000;
+		long[][] signatures = new long[sets][];
+		long[][] similar = new long[sets][];
+		for (int i = 0; i < sets; i++) {
+			BottomKSketch sketch = new BottomKSketch(256);
+			BottomKSketch copy = new BottomKSketch(256);
+			for (int j = 0; j < 1000; j++) {
+				long fingerprint = random.nextLong();
+				sketch.add(fingerprint);
+				copy.add(j < 100 ? random.nextLong() : fingerprint);
+			}
+			signatures[i] = sketch.getSignature(64);
+			similar[i] = copy.getSignature(64);
+			assertEquals(i, index.add(signatures[i]));
+		}
+		assertEquals(sets, index.size());
+
+		int found = 0;
+		int candidates = 0;
+		for (int i = 0; i < sets; i++) {
+			int[] ids = index.query(similar[i]);
+			if (Arrays.binarySearch(ids, i) >= 0) found++;
+			candidates += ids.length;
+		}
+		assertTrue(found > 0.95 * sets);
+		assertTrue(candidates < 1.05 * sets);
+
+		// removed sets are no longer found
+		for (int i = 0; i < sets; i += 2) {
+			assertTrue(index.remove(i));
+		}
+		assertFalse(index.remove(0));
+		assertEquals(sets / 2, index.size());
+		for (int i = 0; i < sets; i++) {
+			boolean indexed = Arrays.binarySearch(index.query(signatures[i]), i) >= 0;
+			assertEquals(i % 2 == 1, indexed);
+		}
+	}
+
+	public void testFingerprintIndex() throws IOException {
+		Random random = new Random(42);
+		File indexFile = File.createTempFile("fingerprints", ".index");
+		indexFile.deleteOnExit();
+
+		// postings over few enough fingerprints that many are shared, spilled
+		// in several runs
+		FingerprintIndexWriter writer = new FingerprintIndexWriter(indexFile, null, 1000);
+		int files = 20;
+		for (int i = 0; i < files; i++) {
+			assertEquals(i, writer.addFile("file-\u00e9-" + i));
+		}
+		long[] fingerprints = new long[500];
+		for (int i = 0; i < fingerprints.length; i++) {
+			fingerprints[i] = random.nextLong();
+		}
+		Map<Long, Set<Integer>> expected = Maps.newHashMap();
+		int postings = 10000;
+		for (int i = 0; i < postings; i++) {
+			long fingerprint = fingerprints[random.nextInt(fingerprints.length)];
+			int file = random.nextInt(files);
+			long start = random.nextInt(1 << 20);
+			writer.add(fingerprint, file, start, start + random.nextInt(1 << 16));
+			if (!expected.containsKey(fingerprint)) {
+				expected.put(fingerprint, new TreeSet<Integer>());
+			}
+			expected.get(fingerprint).add(file);
+		}
+		writer.close();
+
+		FingerprintIndex index = new FingerprintIndex(indexFile);
+		try {
+			assertEquals(postings, index.size());
+			assertEquals(files, index.getFileCount());
+			assertEquals("file-\u00e9-7", index.getFile(7));
+			for (long i = 1; i < index.size(); i++) {
+				assertTrue(index.getFingerprint(i - 1) <= index.getFingerprint(i));
+			}
+			for (long fingerprint : fingerprints) {
+				Set<Integer> ids = expected.get(fingerprint);
+				if (ids == null) {
+					assertFalse(index.contains(fingerprint));
+					assertEquals(0, index.getFileIds(fingerprint).length);
+					continue;
+				}
+				assertTrue(index.contains(fingerprint));
+				int[] found = index.getFileIds(fingerprint);
+				assertEquals(ids.size(), found.length);
+				int i = 0;
+				for (int id : ids) {
+					assertEquals(id, found[i++]);
+				}
+				final long[] previous = { -1, -1 };
+				int count = index.query(fingerprint, new PostingVisitor() {
+					@Override
+					public void visit(int fileId, long start, long end) {
+						assertTrue(start <= end);
+						assertTrue(fileId > previous[0] || (fileId == previous[0] && start >= previous[1]));
+						previous[0] = fileId;
+						previous[1] = start;
+					}
+				});
+				assertTrue(count >= found.length);
+			}
+			for (int i = 0; i < 1000; i++) {
+				long fingerprint = random.nextLong();
+				long bound = index.lowerBound(fingerprint);
+				assertTrue(bound == index.size() || index.getFingerprint(bound) >= fingerprint);
+				assertTrue(bound == 0 || index.getFingerprint(bound - 1) < fingerprint);
+				assertEquals(expected.containsKey(fingerprint), index.contains(fingerprint));
+			}
+		} finally {
+			index.close();
+		}
+
+		// an empty index
+		writer = new FingerprintIndexWriter(indexFile);
+		writer.close();
+		index = new FingerprintIndex(indexFile);
+		try {
+			assertEquals(0, index.size());
+			assertEquals(0, index.getFileCount());
+			assertFalse(index.contains(42));
+			assertEquals(0, index.lowerBound(42));
+		} finally {
+			index.close();
+		}
+		indexFile.delete();
+
+		// an aborted writer leaves no index and no runs behind
+		File runDir = Files.createTempDir();
+		writer = new FingerprintIndexWriter(indexFile, runDir, 10);
+		writer.addFile("file");
+		for (int i = 0; i < 100; i++) {
+			writer.add(random.nextLong(), 0, i, i + 1);
+		}
+		assertTrue(runDir.list().length > 0);
+		writer.abort();
+		writer.close();
+		assertFalse(indexFile.exists());
+		assertEquals(0, runDir.list().length);
+		runDir.delete();
+	}
+
+	public void testWriteIndexFailure() throws IOException {
+		Random random = new Random(42);
+		File dir = Files.createTempDir();
+		for (int i = 0; i < 5; i++) {
+			byte[] bytes = new byte[100000];
+			random.nextBytes(bytes);
+			Files.write(bytes, new File(dir, "file" + i));
+		}
+		File runDir = Files.createTempDir();
+		File indexFile = new File(runDir, "fingerprints.index");
+		Polynomial p = Polynomial.createIrreducible(53);
+
+		// a walk that fails on the third file, after runs of the first two
+		// were spilled, writes no index
+		try {
+			MatchModel.writeIndex(dir.getPath(), newFailingWriter(indexFile, runDir, 2), p);
+			fail("Failure not reported");
+		} catch (IOException e) {
+			assertEquals("Read failed", e.getMessage());
+		}
+		assertEquals(0, runDir.list().length);
+
+		// nor does it replace an earlier one
+		MatchModel.writeIndex(dir.getPath(), indexFile, p);
+		long length = indexFile.length();
+		try {
+			MatchModel.writeIndex(dir.getPath(), newFailingWriter(indexFile, runDir, 2), p);
+			fail("Failure not reported");
+		} catch (IOException e) {
+			assertEquals("Read failed", e.getMessage());
+		}
+		assertEquals(Collections.singletonList(indexFile.getName()), Arrays.asList(runDir.list()));
+		assertEquals(length, indexFile.length());
+		FingerprintIndex index = new FingerprintIndex(indexFile);
+		try {
+			assertEquals(5, index.getFileCount());
+		} finally {
+			index.close();
+		}
+
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+		indexFile.delete();
+		runDir.delete();
+	}
+
+	private static FingerprintIndexWriter newFailingWriter(File indexFile, File runDir, final int failingFileId) {
+		return new FingerprintIndexWriter(indexFile, runDir, 10) {
+			@Override
+			public void add(long fingerprint, int fileId, long start, long end) throws IOException {
+				if (fileId == failingFileId)
+					throw new IOException("Read failed");
+				super.add(fingerprint, fileId, start, end);
+			}
+		};
+	}
+
+	public void testHandprintCache() throws IOException {
+		Random random = new Random(42);
+		File dir = Files.createTempDir();
+		File cacheFile = new File(dir, "handprints.cache");
+		Polynomial p = Polynomial.createIrreducible(53);
+		HandPrintFactory factory = Handprints.newFactory(p).keepAllFingers(false);
+
+		// files old enough to be cached
+		File[] files = new File[5];
+		for (int i = 0; i < files.length; i++) {
+			byte[] data = new byte[100000];
+			random.nextBytes(data);
+			files[i] = new File(dir, "file" + i);
+			Files.write(data, files[i]);
+			files[i].setLastModified(System.currentTimeMillis() - 60000);
+		}
+
+		// files are only open while they are handprinted
+		File descriptors = new File("/proc/self/fd");
+		int open = descriptors.isDirectory() ? descriptors.list().length : 0;
+		HandprintCache cache = new HandprintCache(cacheFile, factory);
+		for (File file : files) {
+			cache.getHandprint(file);
+		}
+		assertEquals(0, cache.getHits());
+		assertEquals(files.length, cache.getMisses());
+		cache.save();
+		if (descriptors.isDirectory()) {
+			assertEquals(open, descriptors.list().length);
+		}
+		assertEquals(0, p.compareTo(HandprintCache.readPolynomial(cacheFile)));
+
+		// unchanged files are restored as computed
+		cache = new HandprintCache(cacheFile, factory);
+		assertEquals(files.length, cache.size());
+		for (File file : files) {
+			Handprint cached = cache.getHandprint(file);
+			Handprint computed = factory.newHandprint(new FileInputStream(file));
+			assertEquals(computed.getPalm(), cached.getPalm());
+			assertTrue(Arrays.equals(computed.getHandFingerprints(), cached.getHandFingerprints()));
+			assertEquals(computed.getHandFingers(), cached.getHandFingers());
+			assertTrue(Arrays.equals(computed.getSketch().getValues(), cached.getSketch().getValues()));
+			assertEquals(1.0, cached.estimateSimilarity(computed));
+		}
+		assertEquals(files.length, cache.getHits());
+
+		// changed and deleted files are not
+		byte[] data = new byte[100000];
+		random.nextBytes(data);
+		Files.write(data, files[0]);
+		files[0].setLastModified(System.currentTimeMillis() - 30000);
+		files[1].delete();
+		cache = new HandprintCache(cacheFile, factory);
+		Handprint changed = cache.getHandprint(files[0]);
+		assertEquals(factory.newHandprint(new FileInputStream(files[0])).getPalm(), changed.getPalm());
+		assertEquals(0, cache.getHits());
+		cache.save();
+		assertEquals(files.length - 1, new HandprintCache(cacheFile, factory).size());
+
+		// recently modified files are not saved
+		files[2].setLastModified(System.currentTimeMillis());
+		cache = new HandprintCache(cacheFile, factory);
+		cache.getHandprint(files[2]);
+		assertEquals(0, cache.getHits());
+		cache.save();
+		assertEquals(files.length - 2, new HandprintCache(cacheFile, factory).size());
+
+		// nor are handprints made with other parameters
+		assertEquals(0, new HandprintCache(cacheFile, Handprints.newFactory(p).sketchSize(128)).size());
+		assertEquals(0, new HandprintCache(cacheFile, Handprints.newFactory(Polynomial.createIrreducible(53))).size());
+
+		// a damaged cache file still loads, at worst as an empty cache
+		byte[] saved = Files.toByteArray(cacheFile);
+		for (int i = 0; i < 200; i++) {
+			byte[] damaged = saved.clone();
+			damaged[random.nextInt(damaged.length)] = (byte) random.nextInt();
+			Files.write(damaged, cacheFile);
+			assertTrue(new HandprintCache(cacheFile, factory).size() <= files.length - 2);
+		}
+
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	public void testHandprintCodec() throws IOException {
+		Random random = new Random(42);
+		Polynomial p = Polynomial.createIrreducible(53);
+		HandPrintFactory factory = Handprints.newFactory(p).keepAllFingers(false);
+
+		// random blocks repeated in random order, so that fingers recur
+		byte[][] blocks = new byte[20][];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = new byte[10000 + random.nextInt(20000)];
+			random.nextBytes(blocks[i]);
+		}
+		List<Handprint> hands = Lists.newArrayList();
+		for (int i = 0; i < 10; i++) {
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			for (int j = 0; j < 50; j++) {
+				data.write(blocks[random.nextInt(blocks.length)]);
+			}
+			hands.add(factory.newHandprint(new ByteArrayInputStream(data.toByteArray())));
+		}
+		hands.add(factory.newHandprint(new ByteArrayInputStream(new byte[0])));
+
+		// intervals out of order and negative fingerprints
+		LongIntervalTopK hand = new LongIntervalTopK(3);
+		hand.offer(-1L, 100L, 200L);
+		hand.offer(-1L, 0L, 50L);
+		hand.offer(Long.MIN_VALUE, Long.MAX_VALUE - 10, Long.MAX_VALUE);
+		hand.offer(Long.MAX_VALUE, 0L, 0L);
+		BottomKSketch sketch = new BottomKSketch(4);
+		sketch.add(Long.MIN_VALUE);
+		sketch.add(Long.MAX_VALUE);
+		hands.add(new Handprint(42, hand, sketch));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		HandprintCodec.writeHeader(factory, out);
+		int headerBytes = out.size();
+		int encodedBytes = 0;
+		for (Handprint h : hands) {
+			HandprintCodec.write(h, out);
+			encodedBytes += HandprintCodec.getEncodedBytes(h);
+		}
+		out.close();
+		assertEquals(headerBytes + encodedBytes, bytes.size());
+
+		// streams and buffers read the same
+		ByteBuffer buffer = ByteBuffer.allocate(bytes.size());
+		HandprintCodec.writeHeader(factory, buffer);
+		for (Handprint h : hands) {
+			HandprintCodec.write(h, buffer);
+		}
+		assertTrue(Arrays.equals(bytes.toByteArray(), buffer.array()));
+		buffer.flip();
+
+		// whatever the order of the buffer
+		ByteBuffer little = ByteBuffer.allocate(bytes.size()).order(ByteOrder.LITTLE_ENDIAN);
+		HandprintCodec.writeHeader(factory, little);
+		for (Handprint h : hands) {
+			HandprintCodec.write(h, little);
+		}
+		assertTrue(Arrays.equals(bytes.toByteArray(), little.array()));
+		little.flip();
+		assertTrue(HandprintCodec.readHeader(little).matches(factory));
+		assertEquals(hands.get(0).getPalm(), HandprintCodec.read(little).getPalm());
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Header header = HandprintCodec.readHeader(in);
+		assertEquals(0, p.compareTo(header.getPolynomial()));
+		assertTrue(header.matches(factory));
+		assertFalse(header.matches(Handprints.newFactory(p).gearChunking(true)));
+		assertTrue(HandprintCodec.readHeader(buffer).matches(factory));
+		for (Handprint h : hands) {
+			for (Handprint read : Arrays.asList(HandprintCodec.read(in), HandprintCodec.read(buffer))) {
+				assertEquals(h.getPalm(), read.getPalm());
+				assertTrue(Arrays.equals(h.getHandFingerprints(), read.getHandFingerprints()));
+				for (long fingerprint : h.getHandFingerprints()) {
+					assertEquals(h.getHandFingers().get(fingerprint), read.getHandFingers().get(fingerprint));
+				}
+				assertEquals(h.getSketch().getK(), read.getSketch().getK());
+				assertTrue(Arrays.equals(h.getSketch().getValues(), read.getSketch().getValues()));
+			}
+		}
+		assertEquals(-1, in.read());
+		assertFalse(buffer.hasRemaining());
+
+		try {
+			HandprintCodec.readHeader(ByteBuffer.wrap(new byte[16]));
+			fail();
+		} catch (IOException e) {
+		}
+
+		// corrupt lengths are rejected before anything is allocated for them
+		assertCorrupt(record(0, 256, Integer.MAX_VALUE));
+		assertCorrupt(record(0, Integer.MAX_VALUE, 0));
+		assertCorrupt(record(0, 0, 0));
+		assertCorrupt(record(1, 5, 1, HandprintTest.zigzag(Long.MAX_VALUE - 1), 10, 1, 0));
+		assertCorrupt(record(1, 5, 1, 0, -1L, 1, 0));
+		ByteArrayOutputStream badHeader = new ByteArrayOutputStream();
+		new DataOutputStream(badHeader).writeInt(HandprintCodec.MAGIC);
+		badHeader.write(varints(HandprintCodec.VERSION, Integer.MAX_VALUE));
+		try {
+			HandprintCodec.readHeader(ByteBuffer.wrap(badHeader.toByteArray()));
+			fail();
+		} catch (IOException e) {
+		}
+
+		// as are truncated and damaged records
+		byte[] records = Arrays.copyOfRange(bytes.toByteArray(), headerBytes, bytes.size());
+		for (int length = 0; length < HandprintCodec.getEncodedBytes(hands.get(0)); length += 7) {
+			assertCorrupt(Arrays.copyOf(records, length));
+		}
+		for (int i = 0; i < 1000; i++) {
+			byte[] damaged = records.clone();
+			for (int j = 0; j < 4; j++) {
+				damaged[random.nextInt(damaged.length)] = (byte) random.nextInt();
+			}
+			ByteBuffer damagedBuffer = ByteBuffer.wrap(damaged);
+			try {
+				while (damagedBuffer.hasRemaining()) {
+					HandprintCodec.read(damagedBuffer);
+				}
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Encodes a palm of zero followed by the values as varints.
+	 */
+	private static byte[] record(long... values) {
+		byte[] varints = varints(values);
+		byte[] record = new byte[8 + varints.length];
+		System.arraycopy(varints, 0, record, 8, varints.length);
+		return record;
+	}
+
+	private static byte[] varints(long... values) {
+		ByteBuffer buffer = ByteBuffer.allocate(10 * values.length);
+		for (long value : values) {
+			while ((value & ~0x7FL) != 0) {
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static void assertCorrupt(byte[] record) {
+		try {
+			HandprintCodec.read(ByteBuffer.wrap(record));
+			fail();
+		} catch (IOException e) {
+		}
+		try {
+			HandprintCodec.read(new DataInputStream(new ByteArrayInputStream(record)));
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+	public void testStringFinder() {
+		Polynomial p = Polynomial.createIrreducible(53);
+		StringMatcher matcher = new StringFinder("fox", p).matcher("the quick fox jumps over the fox.");
+		assertTrue(matcher.find());
+		assertEquals(10, matcher.getStart());
+		assertEquals(13, matcher.getEnd());
+		assertTrue(matcher.find());
+		assertEquals(29, matcher.getStart());
+		assertFalse(matcher.find());
+
+		// an empty target is never found
+		assertFalse(new StringFinder("", p).matcher("the quick fox").find());
+		assertFalse(new StringFinder("").matcher("").find());
+	}
+
+	private static Multimap<Long, Interval> topFingers(Multimap<Long, Interval> all, int fingersPerHand) {
+		Multimap<Long, Interval> hand = ArrayListMultimap.create();
+		TreeSet<Long> keys = Sets.newTreeSet(Handprint.REVERSE_LONG_SORT);
+		keys.addAll(all.keySet());
+		for (Long key : Iterables.limit(keys, fingersPerHand)) {
+			hand.putAll(key, all.get(key));
+		}
+		return hand;
+	}
 }